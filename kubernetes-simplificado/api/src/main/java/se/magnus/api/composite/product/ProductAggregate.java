@@ -1,14 +1,24 @@
 package se.magnus.api.composite.product;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import java.util.List;
 
+/**
+ * Composite view of a product. Parts that were not requested, see the fields parameter
+ * of {@link ProductCompositeService#getProduct}, are null and left out of the response.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class ProductAggregate {
   private final int productId;
   private final String name;
-  private final int weight;
+  private final Integer weight;
   private final List<RecommendationSummary> recommendations;
   private final List<ReviewSummary> reviews;
   private final ServiceAddresses serviceAddresses;
+  private final boolean stale;
+  private final String nextCursor;
+  private final String etag;
 
   public ProductAggregate() {
     productId = 0;
@@ -17,22 +27,67 @@ public class ProductAggregate {
     recommendations = null;
     reviews = null;
     serviceAddresses = null;
+    stale = false;
+    nextCursor = null;
+    etag = null;
   }
 
   public ProductAggregate(
       int productId,
       String name,
-      int weight,
+      Integer weight,
       List<RecommendationSummary> recommendations,
       List<ReviewSummary> reviews,
     ServiceAddresses serviceAddresses) {
 
+    this(productId, name, weight, recommendations, reviews, serviceAddresses, false);
+  }
+
+  public ProductAggregate(
+      int productId,
+      String name,
+      Integer weight,
+      List<RecommendationSummary> recommendations,
+      List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    boolean stale) {
+
+    this(productId, name, weight, recommendations, reviews, serviceAddresses, stale, null);
+  }
+
+  public ProductAggregate(
+      int productId,
+      String name,
+      Integer weight,
+      List<RecommendationSummary> recommendations,
+      List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    boolean stale,
+    String nextCursor) {
+
+    this(productId, name, weight, recommendations, reviews, serviceAddresses, stale, nextCursor, null);
+  }
+
+  public ProductAggregate(
+      int productId,
+      String name,
+      Integer weight,
+      List<RecommendationSummary> recommendations,
+      List<ReviewSummary> reviews,
+    ServiceAddresses serviceAddresses,
+    boolean stale,
+    String nextCursor,
+    String etag) {
+
     this.productId = productId;
     this.name = name;
     this.weight = weight;
     this.recommendations = recommendations;
     this.reviews = reviews;
     this.serviceAddresses = serviceAddresses;
+    this.stale = stale;
+    this.nextCursor = nextCursor;
+    this.etag = etag;
   }
 
   public int getProductId() {
@@ -43,7 +98,7 @@ public class ProductAggregate {
     return name;
   }
 
-  public int getWeight() {
+  public Integer getWeight() {
     return weight;
   }
 
@@ -58,4 +113,26 @@ public class ProductAggregate {
   public ServiceAddresses getServiceAddresses() {
     return serviceAddresses;
   }
+
+  /**
+   * @return true if the product information is a last known good value, served while the product service is unavailable
+   */
+  public boolean isStale() {
+    return stale;
+  }
+
+  /**
+   * @return the cursor for the next page of recommendations and reviews, null if there are no more
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * @return the ETag of the aggregate, based on the versions and fields of the product, recommendations and reviews, null if unknown
+   */
+  @JsonIgnore
+  public String getEtag() {
+    return etag;
+  }
 }
@@ -0,0 +1,67 @@
+package se.magnus.api.composite.product;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One part of a streamed composite product. The stream starts with a PRODUCT part,
+ * followed by one RECOMMENDATION or REVIEW part per recommendation and review.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ProductAggregatePart {
+
+  public enum Type {
+    PRODUCT,
+    RECOMMENDATION,
+    REVIEW
+  }
+
+  private final Type type;
+  private final ProductAggregate product;
+  private final RecommendationSummary recommendation;
+  private final ReviewSummary review;
+
+  public ProductAggregatePart() {
+    this.type = null;
+    this.product = null;
+    this.recommendation = null;
+    this.review = null;
+  }
+
+  public ProductAggregatePart(ProductAggregate product) {
+    this(Type.PRODUCT, product, null, null);
+  }
+
+  public ProductAggregatePart(RecommendationSummary recommendation) {
+    this(Type.RECOMMENDATION, null, recommendation, null);
+  }
+
+  public ProductAggregatePart(ReviewSummary review) {
+    this(Type.REVIEW, null, null, review);
+  }
+
+  private ProductAggregatePart(Type type, ProductAggregate product, RecommendationSummary recommendation, ReviewSummary review) {
+    this.type = type;
+    this.product = product;
+    this.recommendation = recommendation;
+    this.review = review;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  /**
+   * @return the product information, without recommendations and reviews
+   */
+  public ProductAggregate getProduct() {
+    return product;
+  }
+
+  public RecommendationSummary getRecommendation() {
+    return recommendation;
+  }
+
+  public ReviewSummary getReview() {
+    return review;
+  }
+}
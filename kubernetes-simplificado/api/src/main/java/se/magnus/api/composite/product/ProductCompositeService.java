@@ -5,8 +5,10 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import java.util.List;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 @SecurityRequirement(name = "security_auth")
@@ -27,7 +29,8 @@ public interface ProductCompositeService {
       description = "${api.product-composite.create-composite-product.notes}")
   @ApiResponses(value = {
       @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
-      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+      @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
   })
   @ResponseStatus(HttpStatus.ACCEPTED)
   @PostMapping(
@@ -38,7 +41,19 @@ public interface ProductCompositeService {
   /**
    * Sample usage: "curl $HOST:$PORT/product-composite/1".
    *
+   * Recommendations and reviews can be paged with limit and cursor, e.g.
+   * "curl $HOST:$PORT/product-composite/1?limit=10" followed by
+   * "curl $HOST:$PORT/product-composite/1?limit=10&cursor=..." using nextCursor from the previous response.
+   *
+   * Only parts of the composite product can be requested with fields, e.g.
+   * "curl $HOST:$PORT/product-composite/1?fields=name,weight". Core services are only called for the requested parts.
+   *
+   * The response has an ETag, "curl -H 'If-None-Match: ...' $HOST:$PORT/product-composite/1" returns 304 if it is unchanged.
+   *
    * @param productId Id of the product
+   * @param limit Max number of recommendations and reviews to return, optional
+   * @param cursor nextCursor from a previous response, optional
+   * @param fields The parts of the composite product to return, optional, defaults to all parts
    * @return the composite product info, if found, else null
    */
   @Operation(
@@ -46,9 +61,11 @@ public interface ProductCompositeService {
       description = "${api.product-composite.get-composite-product.notes}")
   @ApiResponses(value = {
       @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+      @ApiResponse(responseCode = "304", description = "${api.responseCodes.notModified.description}"),
       @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
       @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
-      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+      @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
   })
   @GetMapping(
     value = "/product-composite/{productId}",
@@ -56,7 +73,53 @@ public interface ProductCompositeService {
   Mono<ProductAggregate> getProduct(
     @PathVariable int productId,
     @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
-    @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
+    @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent,
+    @RequestParam(value = "limit", required = false) Integer limit,
+    @RequestParam(value = "cursor", required = false) String cursor,
+    @RequestParam(value = "fields", required = false) List<String> fields
+  );
+
+  /**
+   * Sample usage: "curl -H 'Accept: application/x-ndjson' $HOST:$PORT/product-composite/1/stream".
+   *
+   * @param productId Id of the product
+   * @return the composite product info as a stream, the product part first, then the recommendations and reviews as they arrive
+   */
+  @Operation(
+      summary = "${api.product-composite.get-composite-product-stream.description}",
+      description = "${api.product-composite.get-composite-product-stream.notes}")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+      @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+      @ApiResponse(responseCode = "404", description = "${api.responseCodes.notFound.description}"),
+      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+      @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+  })
+  @GetMapping(
+    value = "/product-composite/{productId}/stream",
+            produces = {"application/x-ndjson", "text/event-stream"})
+  Flux<ProductAggregatePart> getProductStream(@PathVariable int productId);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/product-composite?productId=1,2,3".
+   *
+   * @param productIds Ids of the products
+   * @return the composite product info of the products that were found, in the requested order
+   */
+  @Operation(
+      summary = "${api.product-composite.get-composite-products.description}",
+      description = "${api.product-composite.get-composite-products.notes}")
+  @ApiResponses(value = {
+      @ApiResponse(responseCode = "200", description = "${api.responseCodes.ok.description}"),
+      @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
+      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+      @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
+  })
+  @GetMapping(
+    value = "/product-composite",
+            produces = "application/json")
+  Flux<ProductAggregate> getProducts(
+    @RequestParam(value = "productId", required = true) List<Integer> productIds
   );
 
   /**
@@ -69,7 +132,8 @@ public interface ProductCompositeService {
       description = "${api.product-composite.delete-composite-product.notes}")
   @ApiResponses(value = {
       @ApiResponse(responseCode = "400", description = "${api.responseCodes.badRequest.description}"),
-      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}")
+      @ApiResponse(responseCode = "422", description = "${api.responseCodes.unprocessableEntity.description}"),
+      @ApiResponse(responseCode = "503", description = "${api.responseCodes.serviceUnavailable.description}")
   })
   @ResponseStatus(HttpStatus.ACCEPTED)
   @DeleteMapping(value = "/product-composite/{productId}")
@@ -5,6 +5,7 @@ public class Product {
   private String name;
   private int weight;
   private String serviceAddress;
+  private int version;
 
   public Product() {
     productId = 0;
@@ -36,6 +37,15 @@ public class Product {
     return serviceAddress;
   }
 
+  /**
+   * @return the version of the stored entity. A recreated entity starts over at version 0, and a replayed create
+   * event overwrites the fields of an existing entity in place without changing its version, so the version alone
+   * does not tell two states of an entity apart and the ETags include the fields of the entities as well
+   */
+  public int getVersion() {
+    return version;
+  }
+
   public void setProductId(int productId) {
     this.productId = productId;
   }
@@ -51,4 +61,8 @@ public class Product {
   public void setServiceAddress(String serviceAddress) {
     this.serviceAddress = serviceAddress;
   }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
 }
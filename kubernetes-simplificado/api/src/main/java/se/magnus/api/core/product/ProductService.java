@@ -1,8 +1,10 @@
 package se.magnus.api.core.product;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductService {
@@ -17,12 +19,26 @@ public interface ProductService {
    */
   @GetMapping(
     value = "/product/{productId}",
-      produces = "application/json")
+      produces = {"application/json", "application/x-jackson-smile"})
   Mono<Product> getProduct(
     @PathVariable int productId,
     @RequestParam(value = "delay", required = false, defaultValue = "0") int delay,
     @RequestParam(value = "faultPercent", required = false, defaultValue = "0") int faultPercent
   );
 
+  /**
+   * Sample usage: "curl $HOST:$PORT/product?productId=1,2,3".
+   *
+   * With "Accept: application/x-ndjson", e.g. "curl -H 'Accept: application/x-ndjson' $HOST:$PORT/product?productId=1,2,3",
+   * the results are streamed as newline delimited JSON as they are read from the database, without an ETag.
+   *
+   * @param productIds Ids of the products
+   * @return the products that were found, ordered by productId
+   */
+  @GetMapping(
+    value = "/product",
+      produces = {"application/json", "application/x-jackson-smile", "application/x-ndjson"})
+  Flux<Product> getProducts(@RequestParam(value = "productId", required = true) List<Integer> productIds);
+
   Mono<Void> deleteProduct(int productId);
 }
@@ -7,6 +7,7 @@ public class Recommendation {
   private int rate;
   private String content;
   private String serviceAddress;
+  private int version;
 
   public Recommendation() {
     productId = 0;
@@ -57,6 +58,15 @@ public class Recommendation {
     return serviceAddress;
   }
 
+  /**
+   * @return the version of the stored entity. A recreated entity starts over at version 0, and a replayed create
+   * event overwrites the fields of an existing entity in place without changing its version, so the version alone
+   * does not tell two states of an entity apart and the ETags include the fields of the entities as well
+   */
+  public int getVersion() {
+    return version;
+  }
+
   public void setProductId(int productId) {
     this.productId = productId;
   }
@@ -80,4 +90,8 @@ public class Recommendation {
   public void setServiceAddress(String serviceAddress) {
     this.serviceAddress = serviceAddress;
   }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
 }
@@ -1,5 +1,6 @@
 package se.magnus.api.core.recommendation;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -9,16 +10,35 @@ public interface RecommendationService {
   Mono<Recommendation> createRecommendation(Recommendation body);
 
   /**
-   * Sample usage: "curl $HOST:$PORT/recommendation?productId=1".
+   * Returns the recommendations of a single product, exposed through the same
+   * REST API as getRecommendations(List, Integer, Integer).
    *
    * @param productId Id of the product
    * @return the recommendations of the product
    */
+  Flux<Recommendation> getRecommendations(int productId);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/recommendation?productId=1" or "curl $HOST:$PORT/recommendation?productId=1,2,3".
+   *
+   * A page of the recommendations of a single product, ordered by recommendationId, is returned
+   * if limit and/or cursor is specified, e.g. "curl $HOST:$PORT/recommendation?productId=1&limit=10&cursor=5".
+   *
+   * With "Accept: application/x-ndjson", e.g. "curl -H 'Accept: application/x-ndjson' $HOST:$PORT/recommendation?productId=1,2,3",
+   * the results are streamed as newline delimited JSON as they are read from the database, without an ETag.
+   *
+   * @param productIds Ids of the products
+   * @param limit Max number of recommendations to return, optional
+   * @param cursor Only return recommendations with a higher recommendationId, optional
+   * @return the recommendations of the products, grouped by productId
+   */
   @GetMapping(
       value = "/recommendation",
-      produces = "application/json")
+      produces = {"application/json", "application/x-jackson-smile", "application/x-ndjson"})
   Flux<Recommendation> getRecommendations(
-    @RequestParam(value = "productId", required = true) int productId);
+    @RequestParam(value = "productId", required = true) List<Integer> productIds,
+    @RequestParam(value = "limit", required = false) Integer limit,
+    @RequestParam(value = "cursor", required = false) Integer cursor);
 
   Mono<Void> deleteRecommendations(int productId);
 }
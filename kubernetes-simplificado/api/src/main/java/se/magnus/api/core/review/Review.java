@@ -7,6 +7,7 @@ public class Review {
   private  String subject;
   private  String content;
   private  String serviceAddress;
+  private int version;
 
   public Review() {
     productId = 0;
@@ -57,6 +58,15 @@ public class Review {
     return serviceAddress;
   }
 
+  /**
+   * @return the version of the stored entity. A recreated entity starts over at version 0, while a replayed create
+   * event that changes the fields of an existing entity updates it in place and increments its version, so the
+   * version alone does not tell two states of an entity apart and the ETags include the fields of the entities as well
+   */
+  public int getVersion() {
+    return version;
+  }
+
   public void setProductId(int productId) {
     this.productId = productId;
   }
@@ -80,4 +90,8 @@ public class Review {
   public void setServiceAddress(String serviceAddress) {
     this.serviceAddress = serviceAddress;
   }
+
+  public void setVersion(int version) {
+    this.version = version;
+  }
 }
@@ -1,5 +1,6 @@
 package se.magnus.api.core.review;
 
+import java.util.List;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -9,15 +10,35 @@ public interface ReviewService {
   Mono<Review> createReview(Review body);
 
   /**
-   * Sample usage: "curl $HOST:$PORT/review?productId=1".
+   * Returns the reviews of a single product, exposed through the same
+   * REST API as getReviews(List, Integer, Integer).
    *
    * @param productId Id of the product
    * @return the reviews of the product
    */
+  Flux<Review> getReviews(int productId);
+
+  /**
+   * Sample usage: "curl $HOST:$PORT/review?productId=1" or "curl $HOST:$PORT/review?productId=1,2,3".
+   *
+   * A page of the reviews of a single product, ordered by reviewId, is returned
+   * if limit and/or cursor is specified, e.g. "curl $HOST:$PORT/review?productId=1&limit=10&cursor=5".
+   *
+   * With "Accept: application/x-ndjson", e.g. "curl -H 'Accept: application/x-ndjson' $HOST:$PORT/review?productId=1,2,3",
+   * the results are streamed as newline delimited JSON as they are read from the database, without an ETag.
+   *
+   * @param productIds Ids of the products
+   * @param limit Max number of reviews to return, optional
+   * @param cursor Only return reviews with a higher reviewId, optional
+   * @return the reviews of the products, grouped by productId
+   */
   @GetMapping(
     value = "/review",
-      produces = "application/json")
-  Flux<Review> getReviews(@RequestParam(value = "productId", required = true) int productId);
+      produces = {"application/json", "application/x-jackson-smile", "application/x-ndjson"})
+  Flux<Review> getReviews(
+    @RequestParam(value = "productId", required = true) List<Integer> productIds,
+    @RequestParam(value = "limit", required = false) Integer limit,
+    @RequestParam(value = "cursor", required = false) Integer cursor);
 
   Mono<Void> deleteReviews(int productId);
 }
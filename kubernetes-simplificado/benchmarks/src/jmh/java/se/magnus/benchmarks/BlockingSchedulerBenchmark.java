@@ -0,0 +1,71 @@
+package se.magnus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import se.magnus.util.reactor.VirtualThreadSchedulers;
+
+/**
+ * Compares the bounded elastic jdbc-pool and publish-pool schedulers with a scheduler backed by
+ * virtual threads, for bursts of blocking calls such as JDBC queries.
+ *
+ * Both schedulers run at most maxConcurrency calls at the same time, the size of the thread pool or of
+ * the semaphore that is matched to the Hikari pool. A burst larger than the bounded elastic pool and
+ * its task queue, 10 + 100 tasks, is rejected by that scheduler.
+ *
+ * The virtual thread scheduler requires a Java 21 runtime, the build only adds "virtual" to the scheduler
+ * param when it runs on one, see build.gradle.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingSchedulerBenchmark {
+
+  @Param({"boundedElastic"})
+  private String scheduler;
+
+  @Param({"10"})
+  private int maxConcurrency;
+
+  @Param({"100"})
+  private int burstSize;
+
+  @Param({"2"})
+  private int blockingMillis;
+
+  private Scheduler target;
+
+  @Setup
+  public void setup() {
+    if ("virtual".equals(scheduler)) {
+      target = VirtualThreadSchedulers.newVirtualThreadScheduler("benchmark", maxConcurrency)
+        .orElseThrow(() -> new IllegalStateException("Virtual threads require a Java 21 runtime"));
+    } else {
+      target = Schedulers.newBoundedElastic(maxConcurrency, 100, "benchmark");
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    target.dispose();
+  }
+
+  @Benchmark
+  public Long burst() {
+    return Flux.range(0, burstSize)
+      .flatMap(i -> Mono.fromCallable(this::blockingCall).subscribeOn(target), burstSize)
+      .count()
+      .block();
+  }
+
+  private Integer blockingCall() throws InterruptedException {
+    Thread.sleep(blockingMillis);
+    return 1;
+  }
+}
@@ -0,0 +1,152 @@
+package se.magnus.benchmarks;
+
+import com.mongodb.reactivestreams.client.MongoClient;
+import com.mongodb.reactivestreams.client.MongoClients;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.repository.support.ReactiveMongoRepositoryFactory;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
+
+/**
+ * Compares deleting the children of a product by first reading them and then deleting them one by one, as the
+ * services used to, with a single bulk delete: deleteByProductId in MongoDB, and DELETE ... WHERE product_id = ?
+ * in MySQL.
+ *
+ * Runs by default against local throwaway databases with the same images and defaults as the test containers of the
+ * services, started with e.g.:
+ *
+ *   docker run -d -p 27017:27017 mongo:6.0.4
+ *   docker run -d -p 3306:3306 -e MYSQL_DATABASE=test -e MYSQL_USER=test -e MYSQL_PASSWORD=test -e MYSQL_RANDOM_ROOT_PASSWORD=yes mysql:8.0.32
+ *
+ * Other databases are given with the benchmark.mongodb.uri, benchmark.mysql.url, benchmark.mysql.user and
+ * benchmark.mysql.password system properties. The recommendations are written through RecommendationRepository to a
+ * separate benchmark-db database. The MySQL part uses plain JDBC on a reviews_benchmark table with the same columns
+ * and index as the reviews table, and reads and deletes the rows the way JPA did, one DELETE per row by id and
+ * version sent as JDBC batches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class BulkDeleteBenchmark {
+
+  private static final int PRODUCT_ID = 1;
+  private static final int JDBC_BATCH_SIZE = 50;
+
+  @Param({"1000", "10000"})
+  private int children;
+
+  @Param({"findThenDelete", "bulk"})
+  private String strategy;
+
+  private MongoClient mongoClient;
+  private RecommendationRepository recommendations;
+  private Connection connection;
+
+  @Setup(Level.Trial)
+  public void connect() throws SQLException {
+    mongoClient = MongoClients.create(
+      System.getProperty("benchmark.mongodb.uri", "mongodb://localhost:27017"));
+    ReactiveMongoTemplate template = new ReactiveMongoTemplate(mongoClient, "benchmark-db");
+    template.indexOps(RecommendationEntity.class)
+      .ensureIndex(new Index().on("productId", Sort.Direction.ASC).on("recommendationId", Sort.Direction.ASC).unique())
+      .block();
+    recommendations = new ReactiveMongoRepositoryFactory(template).getRepository(RecommendationRepository.class);
+
+    connection = DriverManager.getConnection(
+      System.getProperty("benchmark.mysql.url", "jdbc:mysql://localhost:3306/test"),
+      System.getProperty("benchmark.mysql.user", "test"),
+      System.getProperty("benchmark.mysql.password", "test"));
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("CREATE TABLE IF NOT EXISTS reviews_benchmark ("
+        + "id INT AUTO_INCREMENT PRIMARY KEY, version INT NOT NULL, product_id INT NOT NULL, review_id INT NOT NULL, "
+        + "author VARCHAR(255), subject VARCHAR(255), content VARCHAR(255), "
+        + "UNIQUE INDEX reviews_unique_idx (product_id, review_id))");
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void disconnect() throws SQLException {
+    mongoClient.close();
+    connection.close();
+  }
+
+  @Setup(Level.Iteration)
+  public void insertChildren() throws SQLException {
+    recommendations.deleteAll().block();
+    recommendations.saveAll(IntStream.rangeClosed(1, children)
+        .mapToObj(i -> new RecommendationEntity(PRODUCT_ID, i, "Author " + i, i % 5, "Recommendation content " + i))
+        .collect(Collectors.toList()))
+      .then()
+      .block();
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("DELETE FROM reviews_benchmark");
+    }
+    try (PreparedStatement insert = connection.prepareStatement(
+      "INSERT INTO reviews_benchmark (version, product_id, review_id, author, subject, content) VALUES (0, ?, ?, ?, ?, ?)")) {
+      for (int i = 1; i <= children; i++) {
+        insert.setInt(1, PRODUCT_ID);
+        insert.setInt(2, i);
+        insert.setString(3, "Author " + i);
+        insert.setString(4, "Subject " + i);
+        insert.setString(5, "Review content " + i);
+        insert.addBatch();
+      }
+      insert.executeBatch();
+    }
+  }
+
+  @Benchmark
+  public void deleteRecommendations() {
+    if ("bulk".equals(strategy)) {
+      recommendations.deleteByProductId(PRODUCT_ID).block();
+    } else {
+      recommendations.deleteAll(recommendations.findByProductId(PRODUCT_ID)).block();
+    }
+  }
+
+  @Benchmark
+  public int deleteReviews() throws SQLException {
+    if ("bulk".equals(strategy)) {
+      try (PreparedStatement delete = connection.prepareStatement("DELETE FROM reviews_benchmark WHERE product_id = ?")) {
+        delete.setInt(1, PRODUCT_ID);
+        return delete.executeUpdate();
+      }
+    }
+
+    int deleted = 0;
+    try (PreparedStatement select = connection.prepareStatement(
+           "SELECT id, version, product_id, review_id, author, subject, content FROM reviews_benchmark WHERE product_id = ?");
+         PreparedStatement delete = connection.prepareStatement("DELETE FROM reviews_benchmark WHERE id = ? AND version = ?")) {
+
+      select.setInt(1, PRODUCT_ID);
+      try (ResultSet rows = select.executeQuery()) {
+        while (rows.next()) {
+          delete.setInt(1, rows.getInt("id"));
+          delete.setInt(2, rows.getInt("version"));
+          delete.addBatch();
+          if (++deleted % JDBC_BATCH_SIZE == 0) {
+            delete.executeBatch();
+          }
+        }
+      }
+      delete.executeBatch();
+    }
+    return deleted;
+  }
+}
@@ -0,0 +1,76 @@
+package se.magnus.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.ComponentScan.Filter;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.reactive.config.EnableWebFlux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.util.http.HttpErrorInfo;
+
+/**
+ * Measures the error path of the services for a product that is not found: creating the exception, mapping it to an
+ * HttpErrorInfo in the GlobalControllerExceptionHandler of the util project and writing the error response as JSON.
+ *
+ * The request is sent through WebFlux, without a network, to a controller that fails with a NotFoundException. The
+ * exception handler is package-private, it is picked up by a component scan of its package as in the services.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ErrorPathBenchmark {
+
+  private AnnotationConfigApplicationContext context;
+  private WebTestClient client;
+
+  @Setup
+  public void setup() {
+    context = new AnnotationConfigApplicationContext(ErrorPathConfig.class);
+    client = WebTestClient.bindToApplicationContext(context).build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public byte[] notFound() {
+    return client.get().uri("/product/13")
+      .exchange()
+      .expectStatus().isNotFound()
+      .expectBody()
+      .returnResult()
+      .getResponseBody();
+  }
+
+  @Configuration
+  @EnableWebFlux
+  @ComponentScan(basePackageClasses = HttpErrorInfo.class, useDefaultFilters = false,
+    includeFilters = @Filter(RestControllerAdvice.class))
+  @Import(ProductController.class)
+  static class ErrorPathConfig {
+  }
+
+  @RestController
+  static class ProductController {
+
+    @GetMapping("/product/{productId}")
+    Mono<Product> getProduct(@PathVariable int productId) {
+      return Mono.error(new NotFoundException("No product found for productId: " + productId));
+    }
+  }
+}
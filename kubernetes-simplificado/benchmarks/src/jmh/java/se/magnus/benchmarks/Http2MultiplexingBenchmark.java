@@ -0,0 +1,93 @@
+package se.magnus.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Compares HTTP/1.1 and HTTP/2 over cleartext (h2c) for concurrent calls from the product-composite
+ * service to one core service, simulated by a local server that responds after a delay.
+ *
+ * The protocols are:
+ * - HTTP11: HTTP/1.1 only
+ * - H2C_UPGRADE: H2C and HTTP11, as configured in DownstreamWebClients, i.e. an upgrade to h2c is
+ *   requested on every new connection and HTTP/1.1 is used if it is declined
+ * - H2C_PRIOR_KNOWLEDGE: H2C only, the client starts with HTTP/2 without an upgrade
+ *
+ * Each benchmark thread is one concurrent composite request, i.e. 32 threads and a 5 ms delay give
+ * at most 6400 requests per second. The sampled times give the p99 latency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(32)
+@Fork(1)
+public class Http2MultiplexingBenchmark {
+
+  @Param({"HTTP11", "H2C_UPGRADE", "H2C_PRIOR_KNOWLEDGE"})
+  private String protocol;
+
+  @Param({"5"})
+  private int delayMillis;
+
+  private DisposableServer server;
+  private ConnectionProvider connectionProvider;
+  private HttpClient client;
+
+  @Setup
+  public void setup() {
+    server = HttpServer.create()
+      .port(0)
+      .protocol(HttpProtocol.H2C, HttpProtocol.HTTP11)
+      .route(routes -> routes.get("/recommendation", (request, response) ->
+        response.sendString(Mono.just("[]").delayElement(Duration.ofMillis(delayMillis)))))
+      .bindNow();
+
+    // Same pool settings as the defaults in DownstreamWebClients
+    connectionProvider = ConnectionProvider.builder("benchmark")
+      .maxConnections(50)
+      .pendingAcquireMaxCount(-1)
+      .build();
+
+    client = HttpClient.create(connectionProvider)
+      .protocol(protocols(protocol))
+      .baseUrl("http://localhost:" + server.port());
+  }
+
+  private static HttpProtocol[] protocols(String protocol) {
+    switch (protocol) {
+      case "HTTP11":
+        return new HttpProtocol[] {HttpProtocol.HTTP11};
+      case "H2C_UPGRADE":
+        return new HttpProtocol[] {HttpProtocol.H2C, HttpProtocol.HTTP11};
+      case "H2C_PRIOR_KNOWLEDGE":
+        return new HttpProtocol[] {HttpProtocol.H2C};
+      default:
+        throw new IllegalArgumentException("Unknown protocol: " + protocol);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    connectionProvider.disposeLater().block();
+    server.disposeNow();
+  }
+
+  @Benchmark
+  public String call() {
+    return client.get()
+      .uri("/recommendation")
+      .responseContent()
+      .aggregate()
+      .asString()
+      .block();
+  }
+}
@@ -0,0 +1,82 @@
+package se.magnus.benchmarks;
+
+import static se.magnus.api.event.Event.Type.CREATE;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.RecommendationSummary;
+import se.magnus.api.composite.product.ReviewSummary;
+import se.magnus.api.composite.product.ServiceAddresses;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.event.Event;
+
+/**
+ * Measures Jackson JSON (de)serialization of the product events sent to the message broker and of the composite
+ * product returned by product-composite.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSerializationBenchmark {
+
+  private static final TypeReference<Event<Integer, Product>> PRODUCT_EVENT = new TypeReference<>() {};
+
+  @Param({"3", "20"})
+  private int itemsPerProduct;
+
+  private ObjectMapper mapper;
+  private Event<Integer, Product> event;
+  private ProductAggregate aggregate;
+  private byte[] eventBytes;
+  private byte[] aggregateBytes;
+
+  @Setup
+  public void setup() throws IOException {
+    mapper = new ObjectMapper().findAndRegisterModules();
+
+    event = new Event<>(CREATE, 1, new Product(1, "Product name 1", 100, null));
+    aggregate = new ProductAggregate(1, "Product name 1", 100,
+      IntStream.rangeClosed(1, itemsPerProduct)
+        .mapToObj(i -> new RecommendationSummary(i, "Author " + i, i % 5, "Recommendation content " + i))
+        .collect(Collectors.toList()),
+      IntStream.rangeClosed(1, itemsPerProduct)
+        .mapToObj(i -> new ReviewSummary(i, "Author " + i, "Subject " + i, "Review content " + i))
+        .collect(Collectors.toList()),
+      new ServiceAddresses("product-composite-5b7d8c-h4jnx/10.0.0.11:80", "product-7f9c6b-xk2lp/10.0.0.12:80",
+        "review-6c4d9b-m3rtv/10.0.0.14:80", "recommendation-5d8f7c-q9wzt/10.0.0.13:80"));
+
+    eventBytes = mapper.writeValueAsBytes(event);
+    aggregateBytes = mapper.writeValueAsBytes(aggregate);
+  }
+
+  @Benchmark
+  public void serializeEvent(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.writeValueAsBytes(event));
+  }
+
+  @Benchmark
+  public void deserializeEvent(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.readValue(eventBytes, PRODUCT_EVENT));
+  }
+
+  @Benchmark
+  public void serializeAggregate(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.writeValueAsBytes(aggregate));
+  }
+
+  @Benchmark
+  public void deserializeAggregate(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.readValue(aggregateBytes, ProductAggregate.class));
+  }
+}
@@ -0,0 +1,74 @@
+package se.magnus.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.mapstruct.factory.Mappers;
+import org.openjdk.jmh.annotations.*;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.microservices.core.product.persistence.ProductEntity;
+import se.magnus.microservices.core.product.services.ProductMapper;
+import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
+import se.magnus.microservices.core.recommendation.services.RecommendationMapper;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
+import se.magnus.microservices.core.review.services.ReviewMapper;
+
+/**
+ * Measures the MapStruct mappers of the core services, as a round trip from the API model to the entity and back,
+ * i.e. what a create followed by a read costs in mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapperBenchmark {
+
+  @Param({"3", "20"})
+  private int itemsPerProduct;
+
+  private ProductMapper productMapper;
+  private RecommendationMapper recommendationMapper;
+  private ReviewMapper reviewMapper;
+
+  private Product product;
+  private List<Recommendation> recommendations;
+  private List<Review> reviews;
+
+  @Setup
+  public void setup() {
+    productMapper = Mappers.getMapper(ProductMapper.class);
+    recommendationMapper = Mappers.getMapper(RecommendationMapper.class);
+    reviewMapper = Mappers.getMapper(ReviewMapper.class);
+
+    product = new Product(1, "Product name 1", 100, null);
+    recommendations = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Recommendation(1, i, "Author " + i, i % 5, "Recommendation content " + i, null))
+      .collect(Collectors.toList());
+    reviews = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Review(1, i, "Author " + i, "Subject " + i, "Review content " + i, null))
+      .collect(Collectors.toList());
+  }
+
+  @Benchmark
+  public Product product() {
+    ProductEntity entity = productMapper.apiToEntity(product);
+    return productMapper.entityToApi(entity);
+  }
+
+  @Benchmark
+  public List<Recommendation> recommendations() {
+    List<RecommendationEntity> entities = recommendationMapper.apiListToEntityList(recommendations);
+    return recommendationMapper.entityListToApiList(entities);
+  }
+
+  @Benchmark
+  public List<Review> reviews() {
+    List<ReviewEntity> entities = reviewMapper.apiListToEntityList(reviews);
+    return reviewMapper.entityListToApiList(entities);
+  }
+}
@@ -0,0 +1,71 @@
+package se.magnus.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.*;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.microservices.composite.product.services.ProductCompositeServiceImpl;
+
+/**
+ * Measures ProductCompositeServiceImpl.createProductAggregate, that builds a composite product from the responses of
+ * the core services, including the summaries, the service addresses and the ETag.
+ *
+ * The method is private, it is called through a method handle on a service created without its collaborators, that
+ * are not used when the service address is given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProductAggregateBenchmark {
+
+  private static final MethodHandle CREATE_PRODUCT_AGGREGATE = createProductAggregateHandle();
+
+  @Param({"3", "20"})
+  private int itemsPerProduct;
+
+  private ProductCompositeServiceImpl service;
+  private Product product;
+  private List<Recommendation> recommendations;
+  private List<Review> reviews;
+  private String serviceAddress;
+
+  @Setup
+  public void setup() {
+    service = new ProductCompositeServiceImpl(null, null, null, null, null, null, 100, 1000);
+
+    product = new Product(1, "Product name 1", 100, "product-7f9c6b-xk2lp/10.0.0.12:80");
+    recommendations = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Recommendation(1, i, "Author " + i, i % 5, "Recommendation content " + i, "recommendation-5d8f7c-q9wzt/10.0.0.13:80"))
+      .collect(Collectors.toList());
+    reviews = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Review(1, i, "Author " + i, "Subject " + i, "Review content " + i, "review-6c4d9b-m3rtv/10.0.0.14:80"))
+      .collect(Collectors.toList());
+    serviceAddress = "product-composite-5b7d8c-h4jnx/10.0.0.11:80";
+  }
+
+  @Benchmark
+  public ProductAggregate createProductAggregate() throws Throwable {
+    return (ProductAggregate) CREATE_PRODUCT_AGGREGATE.invokeExact(service, product, recommendations, reviews, serviceAddress);
+  }
+
+  private static MethodHandle createProductAggregateHandle() {
+    try {
+      return MethodHandles.privateLookupIn(ProductCompositeServiceImpl.class, MethodHandles.lookup())
+        .findVirtual(ProductCompositeServiceImpl.class, "createProductAggregate",
+          MethodType.methodType(ProductAggregate.class, Product.class, List.class, List.class, String.class));
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
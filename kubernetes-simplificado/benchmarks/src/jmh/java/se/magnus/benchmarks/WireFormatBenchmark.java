@@ -0,0 +1,79 @@
+package se.magnus.benchmarks;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+
+/**
+ * Compares JSON and Smile for the responses from the core services that are needed to build one
+ * composite product: a product, its recommendations and its reviews.
+ *
+ * The CPU cost is the time per operation. The bytes on the wire are checked by WireFormatTests in the
+ * product-composite service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+  private static final TypeReference<List<Recommendation>> RECOMMENDATIONS = new TypeReference<>() {};
+  private static final TypeReference<List<Review>> REVIEWS = new TypeReference<>() {};
+
+  @Param({"json", "smile"})
+  private String format;
+
+  @Param({"3", "20"})
+  private int itemsPerProduct;
+
+  private ObjectMapper mapper;
+  private Product product;
+  private List<Recommendation> recommendations;
+  private List<Review> reviews;
+  private byte[] productBytes;
+  private byte[] recommendationBytes;
+  private byte[] reviewBytes;
+
+  @Setup
+  public void setup() throws IOException {
+    mapper = "smile".equals(format) ? new ObjectMapper(new SmileFactory()) : new ObjectMapper();
+
+    product = new Product(1, "Product name 1", 100, "product-7f9c6b-xk2lp/10.0.0.12:80");
+    recommendations = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Recommendation(1, i, "Author " + i, i % 5, "Recommendation content " + i, "recommendation-5d8f7c-q9wzt/10.0.0.13:80"))
+      .collect(Collectors.toList());
+    reviews = IntStream.rangeClosed(1, itemsPerProduct)
+      .mapToObj(i -> new Review(1, i, "Author " + i, "Subject " + i, "Review content " + i, "review-6c4d9b-m3rtv/10.0.0.14:80"))
+      .collect(Collectors.toList());
+
+    productBytes = mapper.writeValueAsBytes(product);
+    recommendationBytes = mapper.writeValueAsBytes(recommendations);
+    reviewBytes = mapper.writeValueAsBytes(reviews);
+  }
+
+  @Benchmark
+  public void serialize(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.writeValueAsBytes(product));
+    blackhole.consume(mapper.writeValueAsBytes(recommendations));
+    blackhole.consume(mapper.writeValueAsBytes(reviews));
+  }
+
+  @Benchmark
+  public void deserialize(Blackhole blackhole) throws IOException {
+    blackhole.consume(mapper.readValue(productBytes, Product.class));
+    blackhole.consume(mapper.readValue(recommendationBytes, RECOMMENDATIONS));
+    blackhole.consume(mapper.readValue(reviewBytes, REVIEWS));
+  }
+}
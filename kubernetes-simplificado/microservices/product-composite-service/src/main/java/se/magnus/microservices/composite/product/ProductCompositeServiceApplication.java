@@ -5,6 +5,7 @@ import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
 import io.swagger.v3.oas.models.info.License;
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -13,10 +14,10 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Hooks;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
+import se.magnus.util.reactor.VirtualThreadSchedulers;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
@@ -62,27 +63,36 @@ public class ProductCompositeServiceApplication {
 
   private final Integer threadPoolSize;
   private final Integer taskQueueSize;
+  private final boolean virtualThreads;
+  private final Integer virtualThreadsMaxConcurrency;
 
   @Autowired
   public ProductCompositeServiceApplication(
       @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-      @Value("${app.taskQueueSize:100}") Integer taskQueueSize
+      @Value("${app.taskQueueSize:100}") Integer taskQueueSize,
+      @Value("${app.virtualThreads.enabled:false}") boolean virtualThreads,
+      @Value("${app.virtualThreads.maxConcurrency:1000}") Integer virtualThreadsMaxConcurrency
   ) {
     this.threadPoolSize = threadPoolSize;
     this.taskQueueSize = taskQueueSize;
+    this.virtualThreads = virtualThreads;
+    this.virtualThreadsMaxConcurrency = virtualThreadsMaxConcurrency;
   }
 
   @Bean
   public Scheduler publishEventScheduler() {
+    if (virtualThreads) {
+      Optional<Scheduler> scheduler = VirtualThreadSchedulers.newVirtualThreadScheduler("publish-pool", virtualThreadsMaxConcurrency);
+      if (scheduler.isPresent()) {
+        LOG.info("Creates a messagingScheduler with virtual threads, max concurrency = {}", virtualThreadsMaxConcurrency);
+        return scheduler.get();
+      }
+    }
+
     LOG.info("Creates a messagingScheduler with connectionPoolSize = {}", threadPoolSize);
     return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "publish-pool");
   }
 
-  @Bean
-  public WebClient webClient(WebClient.Builder builder) {
-    return builder.build();
-  }
-
   public static void main(String[] args) {
     Hooks.enableAutomaticContextPropagation();
     SpringApplication.run(ProductCompositeServiceApplication.class, args);
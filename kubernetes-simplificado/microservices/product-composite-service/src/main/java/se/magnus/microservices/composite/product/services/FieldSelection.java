@@ -0,0 +1,60 @@
+package se.magnus.microservices.composite.product.services;
+
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import se.magnus.api.exceptions.InvalidInputException;
+
+/**
+ * The parts of a composite product requested with the fields parameter.
+ *
+ * The productId is always returned. Recommendations and reviews are only fetched from the core
+ * services if they are requested.
+ */
+class FieldSelection {
+
+  static final String PRODUCT_ID = "productId";
+  static final String NAME = "name";
+  static final String WEIGHT = "weight";
+  static final String RECOMMENDATIONS = "recommendations";
+  static final String REVIEWS = "reviews";
+  static final String SERVICE_ADDRESSES = "serviceAddresses";
+
+  private static final Set<String> ALL_FIELDS = Set.of(PRODUCT_ID, NAME, WEIGHT, RECOMMENDATIONS, REVIEWS, SERVICE_ADDRESSES);
+
+  static final FieldSelection ALL = new FieldSelection(ALL_FIELDS);
+
+  private final Set<String> fields;
+
+  private FieldSelection(Set<String> fields) {
+    this.fields = fields;
+  }
+
+  static FieldSelection parse(List<String> fields) {
+
+    if (fields == null || fields.isEmpty()) {
+      return ALL;
+    }
+
+    for (String field : fields) {
+      if (!ALL_FIELDS.contains(field)) {
+        throw new InvalidInputException("Invalid field: " + field);
+      }
+    }
+
+    return new FieldSelection(Set.copyOf(fields));
+  }
+
+  boolean isAll() {
+    return fields.equals(ALL_FIELDS);
+  }
+
+  boolean includes(String field) {
+    return fields.contains(field);
+  }
+
+  @Override
+  public String toString() {
+    return String.join(",", new TreeSet<>(fields));
+  }
+}
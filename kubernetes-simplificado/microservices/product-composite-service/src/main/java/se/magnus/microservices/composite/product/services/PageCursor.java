@@ -0,0 +1,98 @@
+package se.magnus.microservices.composite.product.services;
+
+import se.magnus.api.exceptions.InvalidInputException;
+
+/**
+ * Cursor for paging through the recommendations and reviews of a composite product.
+ *
+ * Formatted as "[recommendation cursor]:[review cursor]" where each part is either the last id
+ * returned in the previous page, "-" if there are no more items of that kind, or empty to start
+ * from the first item.
+ */
+class PageCursor {
+
+  static final PageCursor START = new PageCursor(null, false, null, false);
+
+  private static final String DONE = "-";
+
+  private final Integer recommendationCursor;
+  private final boolean recommendationsDone;
+  private final Integer reviewCursor;
+  private final boolean reviewsDone;
+
+  private PageCursor(Integer recommendationCursor, boolean recommendationsDone, Integer reviewCursor, boolean reviewsDone) {
+    this.recommendationCursor = recommendationCursor;
+    this.recommendationsDone = recommendationsDone;
+    this.reviewCursor = reviewCursor;
+    this.reviewsDone = reviewsDone;
+  }
+
+  static PageCursor parse(String cursor) {
+
+    if (cursor == null) {
+      return START;
+    }
+
+    String[] parts = cursor.split(":", -1);
+    if (parts.length != 2) {
+      throw new InvalidInputException("Invalid cursor: " + cursor);
+    }
+
+    try {
+      boolean recommendationsDone = DONE.equals(parts[0]);
+      boolean reviewsDone = DONE.equals(parts[1]);
+      return new PageCursor(
+        recommendationsDone || parts[0].isEmpty() ? null : Integer.valueOf(parts[0]), recommendationsDone,
+        reviewsDone || parts[1].isEmpty() ? null : Integer.valueOf(parts[1]), reviewsDone);
+
+    } catch (NumberFormatException nfe) {
+      throw new InvalidInputException("Invalid cursor: " + cursor);
+    }
+  }
+
+  /**
+   * A list that could not be fetched keeps its part of the current cursor, so that it is retried on the next
+   * page instead of being reported as exhausted.
+   *
+   * @param lastRecommendationId The last recommendation of the page, or null if there are no more
+   * @param recommendationsFailed If the recommendations could not be fetched
+   * @param lastReviewId The last review of the page, or null if there are no more
+   * @param reviewsFailed If the reviews could not be fetched
+   * @return the cursor for the page after the current one, or null if both lists are exhausted
+   */
+  String next(Integer lastRecommendationId, boolean recommendationsFailed, Integer lastReviewId, boolean reviewsFailed) {
+
+    String recommendations = recommendationsFailed ?
+      format(recommendationCursor, recommendationsDone) : format(lastRecommendationId, lastRecommendationId == null);
+    String reviews = reviewsFailed ?
+      format(reviewCursor, reviewsDone) : format(lastReviewId, lastReviewId == null);
+
+    if (DONE.equals(recommendations) && DONE.equals(reviews)) {
+      return null;
+    }
+    return recommendations + ":" + reviews;
+  }
+
+  private static String format(Integer cursor, boolean done) {
+    if (done) {
+      return DONE;
+    }
+    return cursor == null ? "" : String.valueOf(cursor);
+  }
+
+  Integer getRecommendationCursor() {
+    return recommendationCursor;
+  }
+
+  boolean isRecommendationsDone() {
+    return recommendationsDone;
+  }
+
+  Integer getReviewCursor() {
+    return reviewCursor;
+  }
+
+  boolean isReviewsDone() {
+    return reviewsDone;
+  }
+}
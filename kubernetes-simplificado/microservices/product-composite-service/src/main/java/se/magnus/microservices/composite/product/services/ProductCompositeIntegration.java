@@ -6,27 +6,26 @@ import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import io.github.resilience4j.retry.annotation.Retry;
 import io.github.resilience4j.timelimiter.annotation.TimeLimiter;
 import java.io.IOException;
 import java.net.URI;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.cloud.stream.function.StreamBridge;
 import org.springframework.http.HttpStatus;
-import org.springframework.messaging.Message;
-import org.springframework.messaging.support.MessageBuilder;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import org.springframework.web.util.UriComponentsBuilder;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Scheduler;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
 import se.magnus.api.core.recommendation.Recommendation;
@@ -36,6 +35,13 @@ import se.magnus.api.core.review.ReviewService;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.composite.product.services.cache.LastKnownGoodProductStore;
+import se.magnus.microservices.composite.product.services.cache.ProductAggregateCache;
+import se.magnus.microservices.composite.product.services.client.DownstreamWebClients;
+import se.magnus.microservices.composite.product.services.coalescing.RequestCoalescer;
+import se.magnus.microservices.composite.product.services.hedging.RequestHedger;
+import se.magnus.microservices.composite.product.services.publishing.EventPublisher;
 import se.magnus.util.http.HttpErrorInfo;
 import se.magnus.util.http.ServiceUtil;
 
@@ -48,36 +54,45 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
   private static final String RECOMMENDATION_SERVICE_URL = "http://recommendation";
   private static final String REVIEW_SERVICE_URL = "http://review";
 
-  private final Scheduler publishEventScheduler;
-  private final WebClient webClient;
+  private final WebClient productClient;
+  private final WebClient recommendationClient;
+  private final WebClient reviewClient;
   private final ObjectMapper mapper;
-  private final StreamBridge streamBridge;
+  private final ObjectMapper smileMapper;
+  private final EventPublisher eventPublisher;
+  private final LastKnownGoodProductStore lastKnownGoodProducts;
+  private final RequestCoalescer requestCoalescer;
+  private final RequestHedger requestHedger;
 
   private final ServiceUtil serviceUtil;
 
   @Autowired
   public ProductCompositeIntegration(
-      @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
-    WebClient webClient,
+    DownstreamWebClients webClients,
     ObjectMapper mapper,
-    StreamBridge streamBridge,
+    EventPublisher eventPublisher,
+    LastKnownGoodProductStore lastKnownGoodProducts,
+    RequestCoalescer requestCoalescer,
+    RequestHedger requestHedger,
     ServiceUtil serviceUtil
   ) {
-    this.webClient = webClient;
+    this.productClient = webClients.get(DownstreamWebClients.PRODUCT);
+    this.recommendationClient = webClients.get(DownstreamWebClients.RECOMMENDATION);
+    this.reviewClient = webClients.get(DownstreamWebClients.REVIEW);
 
-    this.publishEventScheduler = publishEventScheduler;
     this.mapper = mapper;
-    this.streamBridge = streamBridge;
+    this.smileMapper = mapper.copyWith(new SmileFactory());
+    this.eventPublisher = eventPublisher;
+    this.lastKnownGoodProducts = lastKnownGoodProducts;
+    this.requestCoalescer = requestCoalescer;
+    this.requestHedger = requestHedger;
     this.serviceUtil = serviceUtil;
   }
 
   @Override
   public Mono<Product> createProduct(Product body) {
 
-    return Mono.fromCallable(() -> {
-      sendMessage("products-out-0", new Event(CREATE, body.getProductId(), body));
-      return body;
-    }).subscribeOn(publishEventScheduler);
+    return eventPublisher.publish("products-out-0", new Event(CREATE, body.getProductId(), body)).thenReturn(body);
   }
 
   @Override
@@ -90,8 +105,27 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
         + "/product/{productId}?delay={delay}&faultPercent={faultPercent}").build(productId, delay, faultPercent);
     LOG.debug("Will call the getProduct API on URL: {}", url);
 
-    return webClient.get().uri(url)
+    Mono<Product> call = productClient.get().uri(url)
       .retrieve().bodyToMono(Product.class).log(LOG.getName(), FINE)
+      .doOnNext(product -> lastKnownGoodProducts.put(product))
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
+
+    // Requests that simulate delays or faults are never shared with other requests
+    if (delay != 0 || faultPercent != 0) {
+      return call;
+    }
+    return requestCoalescer.mono("product", productId, () -> call);
+  }
+
+  @Override
+  public Flux<Product> getProducts(List<Integer> productIds) {
+
+    URI url = UriComponentsBuilder.fromUriString(PRODUCT_SERVICE_URL + "/product?productId={productIds}").build(joinProductIds(productIds));
+
+    LOG.debug("Will call the getProducts API on URL: {}", url);
+
+    return productClient.get().uri(url)
+      .retrieve().bodyToFlux(Product.class).log(LOG.getName(), FINE)
       .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
   }
 
@@ -100,82 +134,173 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
     LOG.warn("Creating a fail-fast fallback product for productId = {}, delay = {}, faultPercent = {} and exception = {} ",
         productId, delay, faultPercent, ex.toString());
 
-    if (productId == 13) {
+    Product product = lastKnownGoodProducts.get(productId, serviceUtil.getServiceAddress()).orElseThrow(() -> {
       String errMsg = "Product Id: " + productId + " not found in fallback cache!";
       LOG.warn(errMsg);
-      throw new NotFoundException(errMsg);
-    }
+      return new NotFoundException(errMsg);
+    });
 
-    return Mono.just(new Product(productId, "Fallback product" + productId, productId, serviceUtil.getServiceAddress()));
+    return ProductAggregateCache.markDegraded().then(Mono.just(product));
   }
 
   @Override
   public Mono<Void> deleteProduct(int productId) {
 
-    return Mono.fromRunnable(() -> sendMessage("products-out-0", new Event(DELETE, productId, null)))
-      .subscribeOn(publishEventScheduler).then();
+    // The fallback value is only dropped once the delete event is published
+    return eventPublisher.publish("products-out-0", new Event(DELETE, productId, null))
+      .doOnSuccess(v -> lastKnownGoodProducts.remove(productId));
   }
 
   @Override
   public Mono<Recommendation> createRecommendation(Recommendation body) {
 
-    return Mono.fromCallable(() -> {
-      sendMessage("recommendations-out-0", new Event(CREATE, body.getProductId(), body));
-      return body;
-    }).subscribeOn(publishEventScheduler);
+    return eventPublisher.publish("recommendations-out-0", new Event(CREATE, body.getProductId(), body)).thenReturn(body);
+  }
+
+  /**
+   * Publishes the create events for all recommendations of a composite product in batches.
+   *
+   * @param bodies The recommendations to create
+   * @return the recommendations that were published
+   */
+  public Mono<List<Recommendation>> createRecommendations(List<Recommendation> bodies) {
+
+    List<Event> events = bodies.stream()
+      .map(body -> new Event(CREATE, body.getProductId(), body))
+      .collect(Collectors.toList());
+    return eventPublisher.publish("recommendations-out-0", events).thenReturn(bodies);
   }
 
   @Override
   public Flux<Recommendation> getRecommendations(int productId) {
 
+    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses,
+    // unless the call was rejected by the concurrency limiter, see partialResponse
+    return requestCoalescer.flux("recommendation", productId, () -> hedgedRecommendations(productId))
+      .onErrorResume(this::partialResponse);
+  }
+
+  /**
+   * Gets the recommendations of a product for a streaming response, as {@link #getRecommendations(int)} but without sharing the call with
+   * concurrent requests. A shared call keeps all of its elements for the subscribers that join it, the recommendations of a
+   * streaming response are only held until the client has read them.
+   */
+  public Flux<Recommendation> streamRecommendations(int productId) {
+
+    return hedgedRecommendations(productId).onErrorResume(this::partialResponse);
+  }
+
+  private Flux<Recommendation> hedgedRecommendations(int productId) {
+
     URI url = UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation?productId={productId}").build(productId);
 
     LOG.debug("Will call the getRecommendations API on URL: {}", url);
 
-    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return webClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+    return requestHedger.flux("recommendation", () -> recommendationClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE));
+  }
+
+  @Override
+  public Flux<Recommendation> getRecommendations(List<Integer> productIds, Integer limit, Integer cursor) {
+
+    URI url = UriComponentsBuilder.fromUriString(RECOMMENDATION_SERVICE_URL + "/recommendation?productId={productIds}")
+      .queryParamIfPresent("limit", Optional.ofNullable(limit))
+      .queryParamIfPresent("cursor", Optional.ofNullable(cursor))
+      .build(joinProductIds(productIds));
+
+    LOG.debug("Will call the getRecommendations API on URL: {}", url);
+
+    // Errors are passed on, a failed page must not be taken for the last one, see ProductCompositeServiceImpl.assembleProductPage
+    return recommendationClient.get().uri(url).retrieve().bodyToFlux(Recommendation.class).log(LOG.getName(), FINE)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
   }
 
   @Override
   public Mono<Void> deleteRecommendations(int productId) {
 
-    return Mono.fromRunnable(() -> sendMessage("recommendations-out-0", new Event(DELETE, productId, null)))
-      .subscribeOn(publishEventScheduler).then();
+    return eventPublisher.publish("recommendations-out-0", new Event(DELETE, productId, null));
   }
 
   @Override
   public Mono<Review> createReview(Review body) {
 
-    return Mono.fromCallable(() -> {
-      sendMessage("reviews-out-0", new Event(CREATE, body.getProductId(), body));
-      return body;
-    }).subscribeOn(publishEventScheduler);
+    return eventPublisher.publish("reviews-out-0", new Event(CREATE, body.getProductId(), body)).thenReturn(body);
+  }
+
+  /**
+   * Publishes the create events for all reviews of a composite product in batches.
+   *
+   * @param bodies The reviews to create
+   * @return the reviews that were published
+   */
+  public Mono<List<Review>> createReviews(List<Review> bodies) {
+
+    List<Event> events = bodies.stream()
+      .map(body -> new Event(CREATE, body.getProductId(), body))
+      .collect(Collectors.toList());
+    return eventPublisher.publish("reviews-out-0", events).thenReturn(bodies);
   }
 
   @Override
   public Flux<Review> getReviews(int productId) {
 
+    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses,
+    // unless the call was rejected by the concurrency limiter, see partialResponse
+    return requestCoalescer.flux("review", productId, () -> hedgedReviews(productId))
+      .onErrorResume(this::partialResponse);
+  }
+
+  /**
+   * Gets the reviews of a product for a streaming response, as {@link #getReviews(int)} but without sharing the call with
+   * concurrent requests. A shared call keeps all of its elements for the subscribers that join it, the reviews of a
+   * streaming response are only held until the client has read them.
+   */
+  public Flux<Review> streamReviews(int productId) {
+
+    return hedgedReviews(productId).onErrorResume(this::partialResponse);
+  }
+
+  private Flux<Review> hedgedReviews(int productId) {
+
     URI url = UriComponentsBuilder.fromUriString(REVIEW_SERVICE_URL + "/review?productId={productId}").build(productId);
 
     LOG.debug("Will call the getReviews API on URL: {}", url);
 
-    // Return an empty result if something goes wrong to make it possible for the composite service to return partial responses
-    return webClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE).onErrorResume(error -> empty());
+    return requestHedger.flux("review", () -> reviewClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE));
+  }
+
+  @Override
+  public Flux<Review> getReviews(List<Integer> productIds, Integer limit, Integer cursor) {
+
+    URI url = UriComponentsBuilder.fromUriString(REVIEW_SERVICE_URL + "/review?productId={productIds}")
+      .queryParamIfPresent("limit", Optional.ofNullable(limit))
+      .queryParamIfPresent("cursor", Optional.ofNullable(cursor))
+      .build(joinProductIds(productIds));
+
+    LOG.debug("Will call the getReviews API on URL: {}", url);
+
+    // Errors are passed on, a failed page must not be taken for the last one, see ProductCompositeServiceImpl.assembleProductPage
+    return reviewClient.get().uri(url).retrieve().bodyToFlux(Review.class).log(LOG.getName(), FINE)
+      .onErrorMap(WebClientResponseException.class, ex -> handleException(ex));
   }
 
   @Override
   public Mono<Void> deleteReviews(int productId) {
 
-    return Mono.fromRunnable(() -> sendMessage("reviews-out-0", new Event(DELETE, productId, null)))
-      .subscribeOn(publishEventScheduler).then();
+    return eventPublisher.publish("reviews-out-0", new Event(DELETE, productId, null));
+  }
+
+  private <T> Flux<T> partialResponse(Throwable error) {
+
+    // Load shedding by the concurrency limiter is returned as 503, the same as for the product
+    if (error instanceof ServiceUnavailableException) {
+      return Flux.error(error);
+    }
+
+    return ProductAggregateCache.markDegraded().thenMany(empty());
   }
 
-  private void sendMessage(String bindingName, Event event) {
-    LOG.debug("Sending a {} message to {}", event.getEventType(), bindingName);
-    Message message = MessageBuilder.withPayload(event)
-      .setHeader("partitionKey", event.getKey())
-      .build();
-    streamBridge.send(bindingName, message);
+  private String joinProductIds(List<Integer> productIds) {
+    return productIds.stream().map(String::valueOf).collect(Collectors.joining(","));
   }
 
   private Throwable handleException(Throwable ex) {
@@ -204,7 +329,9 @@ public class ProductCompositeIntegration implements ProductService, Recommendati
 
   private String getErrorMessage(WebClientResponseException ex) {
     try {
-      return mapper.readValue(ex.getResponseBodyAsString(), HttpErrorInfo.class).getMessage();
+      // Error responses use the same wire format as the request, see DownstreamWebClients
+      ObjectMapper errorMapper = DownstreamWebClients.APPLICATION_SMILE.isCompatibleWith(ex.getHeaders().getContentType()) ? smileMapper : mapper;
+      return errorMapper.readValue(ex.getResponseBodyAsByteArray(), HttpErrorInfo.class).getMessage();
     } catch (IOException ioex) {
       return ex.getMessage();
     }
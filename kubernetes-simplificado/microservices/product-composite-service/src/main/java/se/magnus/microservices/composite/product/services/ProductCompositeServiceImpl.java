@@ -4,24 +4,41 @@ import static java.util.logging.Level.FINE;
 
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.context.ReactiveSecurityContextHolder;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextImpl;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.composite.product.*;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.review.Review;
+import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.composite.product.services.cache.LastKnownGoodProduct;
+import se.magnus.microservices.composite.product.services.cache.ProductAggregateCache;
+import se.magnus.microservices.composite.product.services.cache.ResponseBytesCache;
+import se.magnus.microservices.composite.product.services.readmodel.ProductReadModel;
+import se.magnus.microservices.composite.product.services.readmodel.ProductView;
 import se.magnus.microservices.composite.product.services.tracing.ObservationUtil;
+import se.magnus.util.http.ConditionalGet;
+import se.magnus.util.http.RequestParameters;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -29,17 +46,45 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
   private static final Logger LOG = LoggerFactory.getLogger(ProductCompositeServiceImpl.class);
 
+  private static final int STREAM_PREFETCH = 32;
+
   private final SecurityContext nullSecCtx = new SecurityContextImpl();
 
   private final ServiceUtil serviceUtil;
   private final ObservationUtil observationUtil;
   private final ProductCompositeIntegration integration;
+  private final ProductAggregateCache aggregateCache;
+  private final ResponseBytesCache responseCache;
+  private final ProductReadModel readModel;
+  private final int maxPageSize;
+  private final int maxBulkSize;
 
   @Autowired
-  public ProductCompositeServiceImpl(ServiceUtil serviceUtil, ObservationUtil observationUtil, ProductCompositeIntegration integration) {
+  public ProductCompositeServiceImpl(
+    ServiceUtil serviceUtil,
+    ObservationUtil observationUtil,
+    ProductCompositeIntegration integration,
+    ProductAggregateCache aggregateCache,
+    ResponseBytesCache responseCache,
+    ProductReadModel readModel,
+    @Value("${app.paging.max-limit:100}") int maxPageSize,
+    @Value("${app.paging.core-max-page-size:1000}") int coreMaxPageSize,
+    @Value("${app.maxBulkSize:100}") int maxBulkSize) {
+
     this.serviceUtil = serviceUtil;
     this.observationUtil = observationUtil;
     this.integration = integration;
+    this.aggregateCache = aggregateCache;
+    this.responseCache = responseCache;
+    this.readModel = readModel;
+    this.maxPageSize = maxPageSize;
+    this.maxBulkSize = maxBulkSize;
+
+    // One more item than the limit is asked for, to know if there is a next page
+    if (maxPageSize + 1 > coreMaxPageSize) {
+      throw new IllegalStateException("app.paging.max-limit: " + maxPageSize
+        + " must be less than the max page size of the core services, app.paging.core-max-page-size: " + coreMaxPageSize);
+    }
   }
 
   @Override
@@ -56,28 +101,30 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
 
       LOG.info("Will create a new composite entity for product.id: {}", body.getProductId());
 
-      Product product = new Product(body.getProductId(), body.getName(), body.getWeight(), null);
+      int weight = body.getWeight() == null ? 0 : body.getWeight();
+      Product product = new Product(body.getProductId(), body.getName(), weight, null);
       monoList.add(integration.createProduct(product));
 
+      // Recommendations and reviews are published in batches, not to flood the publishing scheduler for large products
       if (body.getRecommendations() != null) {
-        body.getRecommendations().forEach(r -> {
-          Recommendation recommendation = new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null);
-          monoList.add(integration.createRecommendation(recommendation));
-        });
+        List<Recommendation> recommendations = body.getRecommendations().stream()
+          .map(r -> new Recommendation(body.getProductId(), r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent(), null))
+          .collect(Collectors.toList());
+        monoList.add(integration.createRecommendations(recommendations));
       }
 
       if (body.getReviews() != null) {
-        body.getReviews().forEach(r -> {
-          Review review = new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null);
-          monoList.add(integration.createReview(review));
-        });
+        List<Review> reviews = body.getReviews().stream()
+          .map(r -> new Review(body.getProductId(), r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent(), null))
+          .collect(Collectors.toList());
+        monoList.add(integration.createReviews(reviews));
       }
 
       LOG.debug("createCompositeProduct: composite entities created for productId: {}", body.getProductId());
 
       return Mono.zip(r -> "", monoList.toArray(new Mono[0]))
           .doOnError(ex -> LOG.warn("createCompositeProduct failed: {}", ex.toString()))
-          .then();
+          .then(Mono.fromRunnable(() -> invalidateCaches(body.getProductId())));
 
     } catch (RuntimeException re) {
       LOG.warn("createCompositeProduct failed: {}", re.toString());
@@ -86,23 +133,213 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
   }
 
   @Override
-  public Mono<ProductAggregate> getProduct(int productId, int delay, int faultPercent) {
-    return observationWithProductInfo(productId, () -> getProductInternal(productId, delay, faultPercent));
+  public Mono<ProductAggregate> getProduct(int productId, int delay, int faultPercent, Integer limit, String cursor, List<String> fields) {
+    return observationWithProductInfo(productId, () ->
+      ConditionalGet.ifNoneMatch(getProductInternal(productId, delay, faultPercent, limit, cursor, fields), ProductAggregate::getEtag));
   }
 
-  private Mono<ProductAggregate> getProductInternal(int productId, int delay, int faultPercent) {
+  private Mono<ProductAggregate> getProductInternal(
+    int productId, int delay, int faultPercent, Integer limit, String cursor, List<String> fields) {
+
     LOG.info("Will get composite product info for product.id={}", productId);
+
+    FieldSelection selection = FieldSelection.parse(fields);
+
+    if (limit != null || cursor != null) {
+      return assembleProductPage(productId, delay, faultPercent, validateLimit(limit), PageCursor.parse(cursor), selection);
+    }
+
+    // Serve the view from the read model, if there is one, without calling the core services
+    if (delay == 0 && faultPercent == 0) {
+      Optional<ProductView> view = readModel.get(productId);
+      if (view.isPresent()) {
+        LOG.debug("Found view for product.id={} in the read model", productId);
+        return getSecurityContextMono().map(sc -> createProductAggregate(
+          sc, view.get().getProduct(), view.get().getRecommendations(), view.get().getReviews(), selection));
+      }
+    }
+
+    // Requests that simulate delays or faults, or only ask for some of the fields, always go to the core services
+    if (delay != 0 || faultPercent != 0 || !selection.isAll()) {
+      return assembleProduct(productId, delay, faultPercent, selection);
+    }
+
+    // A view that is not verified yet is compared with the aggregate of the core services, not with a cached one
+    Optional<ProductView> unverified = readModel.getUnverified(productId);
+    if (unverified.isPresent()) {
+      return verifyView(productId, unverified.get(), assembleProduct(productId, delay, faultPercent, selection));
+    }
+
+    return aggregateCache.get(productId, () -> assembleProduct(productId, delay, faultPercent, selection));
+  }
+
+  private Mono<ProductAggregate> assembleProduct(int productId, int delay, int faultPercent, FieldSelection selection) {
+
+    // Skip the calls to the core services for parts that are not requested. The parts are sorted by id, the same as in
+    // the views of the read model, so that both give the same response and the same ETag
+    Mono<List<Recommendation>> recommendations = !selection.includes(FieldSelection.RECOMMENDATIONS) ? Mono.just(List.of()) :
+      integration.getRecommendations(productId).sort(Comparator.comparingInt(Recommendation::getRecommendationId)).collectList();
+    Mono<List<Review>> reviews = !selection.includes(FieldSelection.REVIEWS) ? Mono.just(List.of()) :
+      integration.getReviews(productId).sort(Comparator.comparingInt(Review::getReviewId)).collectList();
+
     return Mono.zip(
             values -> createProductAggregate(
-          (SecurityContext) values[0], (Product) values[1], (List<Recommendation>) values[2], (List<Review>) values[3], serviceUtil.getServiceAddress()),
+          (SecurityContext) values[0], (Product) values[1], (List<Recommendation>) values[2], (List<Review>) values[3], selection),
+            getSecurityContextMono(),
+            integration.getProduct(productId, delay, faultPercent),
+            recommendations,
+            reviews)
+        .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
+        .log(LOG.getName(), FINE);
+  }
+
+  // The view is verified if it gives the same ETag as the aggregate, i.e. the same entities, unless the aggregate is degraded
+  private Mono<ProductAggregate> verifyView(int productId, ProductView view, Mono<ProductAggregate> aggregate) {
+    AtomicBoolean degraded = new AtomicBoolean(false);
+    return aggregate
+      .doOnNext(a -> {
+        String viewEtag = createProductAggregate(
+          view.getProduct(), view.getRecommendations(), view.getReviews(), serviceUtil.getServiceAddress()).getEtag();
+        if (!degraded.get() && viewEtag.equals(a.getEtag())) {
+          readModel.verify(productId, view);
+        } else {
+          LOG.debug("View of product.id={} differs from the core services, is not served", productId);
+        }
+      })
+      .contextWrite(ProductAggregateCache.trackDegraded(degraded))
+      // Pass the flag on to an outer tracker, see ResponseBytesCacheFilter
+      .flatMap(a -> degraded.get() ? ProductAggregateCache.markDegraded().thenReturn(a) : Mono.just(a));
+  }
+
+  private Mono<ProductAggregate> assembleProductPage(
+    int productId, int delay, int faultPercent, int limit, PageCursor cursor, FieldSelection selection) {
+
+    LOG.debug("Will get max {} recommendations and reviews for product.id={}", limit, productId);
+
+    // Ask for one more item than the limit, to know if there is a next page
+    Mono<Optional<List<Recommendation>>> recommendations = cursor.isRecommendationsDone() || !selection.includes(FieldSelection.RECOMMENDATIONS) ?
+      Mono.just(Optional.of(List.of())) :
+      pageOrFailed(integration.getRecommendations(List.of(productId), limit + 1, cursor.getRecommendationCursor()));
+    Mono<Optional<List<Review>>> reviews = cursor.isReviewsDone() || !selection.includes(FieldSelection.REVIEWS) ?
+      Mono.just(Optional.of(List.of())) :
+      pageOrFailed(integration.getReviews(List.of(productId), limit + 1, cursor.getReviewCursor()));
+
+    return Mono.zip(
+            values -> createProductAggregatePage(
+          (SecurityContext) values[0], (Product) values[1], (Optional<List<Recommendation>>) values[2], (Optional<List<Review>>) values[3],
+          limit, cursor, selection),
             getSecurityContextMono(),
             integration.getProduct(productId, delay, faultPercent),
-            integration.getRecommendations(productId).collectList(),
-            integration.getReviews(productId).collectList())
+            recommendations,
+            reviews)
         .doOnError(ex -> LOG.warn("getCompositeProduct failed: {}", ex.toString()))
         .log(LOG.getName(), FINE);
   }
 
+  // A page that could not be fetched is returned empty, and keeps its part of the cursor so that the next request retries it
+  private <T> Mono<Optional<List<T>>> pageOrFailed(Flux<T> page) {
+    return page.collectList()
+      .map(Optional::of)
+      // Rejections by the concurrency limiter are returned as 503, not as a partial response
+      .onErrorResume(error -> !(error instanceof ServiceUnavailableException), error -> {
+        LOG.warn("Failed to get a page, returns a partial response: {}", error.toString());
+        return ProductAggregateCache.markDegraded().thenReturn(Optional.empty());
+      });
+  }
+
+  private ProductAggregate createProductAggregatePage(
+    SecurityContext sc, Product product, Optional<List<Recommendation>> recommendationsOrFailed, Optional<List<Review>> reviewsOrFailed,
+    int limit, PageCursor cursor, FieldSelection selection) {
+
+    logAuthorizationInfo(sc);
+
+    List<Recommendation> recommendations = recommendationsOrFailed.orElse(List.of());
+    List<Review> reviews = reviewsOrFailed.orElse(List.of());
+    boolean moreRecommendations = recommendations.size() > limit;
+    boolean moreReviews = reviews.size() > limit;
+    List<Recommendation> recommendationPage = moreRecommendations ? recommendations.subList(0, limit) : recommendations;
+    List<Review> reviewPage = moreReviews ? reviews.subList(0, limit) : reviews;
+
+    String nextCursor = cursor.next(
+      moreRecommendations ? recommendationPage.get(limit - 1).getRecommendationId() : null, recommendationsOrFailed.isEmpty(),
+      moreReviews ? reviewPage.get(limit - 1).getReviewId() : null, reviewsOrFailed.isEmpty());
+
+    return createProductAggregate(product, recommendationPage, reviewPage, serviceUtil.getServiceAddress(), nextCursor, selection);
+  }
+
+  private int validateLimit(Integer limit) {
+
+    if (limit == null) {
+      return maxPageSize;
+    }
+
+    if (limit < 1 || limit > maxPageSize) {
+      throw new InvalidInputException("Invalid limit: " + limit + ", must be between 1 and " + maxPageSize);
+    }
+
+    return limit;
+  }
+
+  @Override
+  public Flux<ProductAggregatePart> getProductStream(int productId) {
+    return observationWithProductInfo(productId, () -> getProductStreamInternal(productId));
+  }
+
+  private Flux<ProductAggregatePart> getProductStreamInternal(int productId) {
+    LOG.info("Will stream composite product info for product.id={}", productId);
+
+    String serviceAddress = serviceUtil.getServiceAddress();
+    Mono<ProductAggregatePart> productPart = integration.getProduct(productId, 0, 0)
+      .map(product -> new ProductAggregatePart(createProductAggregate(product, null, null, serviceAddress)));
+
+    // The recommendations and reviews are not shared with concurrent requests, to only hold those the client has not read yet
+    Flux<ProductAggregatePart> recommendationParts = integration.streamRecommendations(productId)
+      .map(r -> new ProductAggregatePart(new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent())));
+
+    Flux<ProductAggregatePart> reviewParts = integration.streamReviews(productId)
+      .map(r -> new ProductAggregatePart(new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent())));
+
+    // All three calls start at once, recommendations and reviews that arrive before the product are held back until it has been emitted.
+    // At most STREAM_PREFETCH of them are requested ahead, the rest are left to backpressure
+    return getLogAuthorizationInfoMono().thenMany(
+        Flux.mergeSequential(STREAM_PREFETCH, productPart, Flux.merge(STREAM_PREFETCH, recommendationParts, reviewParts)))
+      .doOnError(ex -> LOG.warn("getCompositeProductStream failed: {}", ex.toString()))
+      .log(LOG.getName(), FINE);
+  }
+
+  @Override
+  public Flux<ProductAggregate> getProducts(List<Integer> productIds) {
+    return observationWithProductInfo(productIds, () -> getProductsInternal(productIds));
+  }
+
+  private Flux<ProductAggregate> getProductsInternal(List<Integer> productIds) {
+
+    // Rejects invalid productIds here, before the calls to the core services, that apply the same rules
+    List<Integer> distinctIds = List.copyOf(RequestParameters.validateProductIds(productIds, maxBulkSize));
+    LOG.info("Will get composite product info for {} product.ids={}", distinctIds.size(), distinctIds);
+    return Mono.zip(
+            values -> createProductAggregates(
+          distinctIds, (SecurityContext) values[0], (List<Product>) values[1],
+          (Map<Integer, List<Recommendation>>) values[2], (Map<Integer, List<Review>>) values[3], serviceUtil.getServiceAddress()),
+            getSecurityContextMono(),
+            integration.getProducts(distinctIds).collectList(),
+            partsOrEmpty(integration.getRecommendations(distinctIds, null, null), Recommendation::getProductId),
+            partsOrEmpty(integration.getReviews(distinctIds, null, null), Review::getProductId))
+        .flatMapMany(Flux::fromIterable)
+        .doOnError(ex -> LOG.warn("getCompositeProducts failed: {}", ex.toString()))
+        .log(LOG.getName(), FINE);
+  }
+
+  // Recommendations or reviews that could not be fetched are left out, the same as for a single product, see ProductCompositeIntegration
+  private <T> Mono<Map<Integer, List<T>>> partsOrEmpty(Flux<T> parts, Function<T, Integer> productId) {
+    return parts.collect(Collectors.groupingBy(productId))
+      // Rejections by the concurrency limiter are returned as 503, not as a partial response
+      .onErrorResume(error -> !(error instanceof ServiceUnavailableException), error -> {
+        LOG.warn("Failed to get the parts of the products, returns partial responses: {}", error.toString());
+        return ProductAggregateCache.markDegraded().thenReturn(Map.of());
+      });
+  }
+
   @Override
   public Mono<Void> deleteProduct(int productId) {
     return observationWithProductInfo(productId, () -> deleteProductInternal(productId));
@@ -119,7 +356,8 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
               integration.deleteRecommendations(productId),
               integration.deleteReviews(productId))
           .doOnError(ex -> LOG.warn("delete failed: {}", ex.toString()))
-          .log(LOG.getName(), FINE).then();
+          .log(LOG.getName(), FINE)
+          .then(Mono.fromRunnable(() -> invalidateCaches(productId)));
 
     } catch (RuntimeException re) {
       LOG.warn("deleteCompositeProduct failed: {}", re.toString());
@@ -127,7 +365,7 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     }
   }
 
-  private <T> T observationWithProductInfo(int productInfo, Supplier<T> supplier) {
+  private <T> T observationWithProductInfo(Object productInfo, Supplier<T> supplier) {
     return observationUtil.observe(
       "composite observation",
       "product info",
@@ -136,24 +374,52 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
       supplier);
   }
 
+  private List<ProductAggregate> createProductAggregates(
+    List<Integer> productIds, SecurityContext sc, List<Product> products,
+    Map<Integer, List<Recommendation>> recommendations, Map<Integer, List<Review>> reviews, String serviceAddress) {
+
+    logAuthorizationInfo(sc);
+
+    // Products that were not found are left out, the rest are returned in the requested order
+    Map<Integer, Product> productsById = products.stream().collect(Collectors.toMap(Product::getProductId, Function.identity()));
+    return productIds.stream()
+      .filter(productsById::containsKey)
+      .map(id -> createProductAggregate(
+        productsById.get(id), recommendations.getOrDefault(id, List.of()), reviews.getOrDefault(id, List.of()), serviceAddress))
+      .collect(Collectors.toList());
+  }
+
   private ProductAggregate createProductAggregate(
-    SecurityContext sc, Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress) {
+    SecurityContext sc, Product product, List<Recommendation> recommendations, List<Review> reviews, FieldSelection selection) {
 
     logAuthorizationInfo(sc);
 
+    return createProductAggregate(product, recommendations, reviews, serviceUtil.getServiceAddress(), null, selection);
+  }
+
+  private ProductAggregate createProductAggregate(
+    Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress) {
+
+    return createProductAggregate(product, recommendations, reviews, serviceAddress, null, FieldSelection.ALL);
+  }
+
+  private ProductAggregate createProductAggregate(
+    Product product, List<Recommendation> recommendations, List<Review> reviews, String serviceAddress,
+    String nextCursor, FieldSelection selection) {
+
     // 1. Setup product info
     int productId = product.getProductId();
-    String name = product.getName();
-    int weight = product.getWeight();
+    String name = selection.includes(FieldSelection.NAME) ? product.getName() : null;
+    Integer weight = selection.includes(FieldSelection.WEIGHT) ? product.getWeight() : null;
 
-    // 2. Copy summary recommendation info, if available
-    List<RecommendationSummary> recommendationSummaries = (recommendations == null) ? null :
+    // 2. Copy summary recommendation info, if available and requested
+    List<RecommendationSummary> recommendationSummaries = (recommendations == null || !selection.includes(FieldSelection.RECOMMENDATIONS)) ? null :
       recommendations.stream()
         .map(r -> new RecommendationSummary(r.getRecommendationId(), r.getAuthor(), r.getRate(), r.getContent()))
         .collect(Collectors.toList());
 
-    // 3. Copy summary review info, if available
-    List<ReviewSummary> reviewSummaries = (reviews == null) ? null :
+    // 3. Copy summary review info, if available and requested
+    List<ReviewSummary> reviewSummaries = (reviews == null || !selection.includes(FieldSelection.REVIEWS)) ? null :
       reviews.stream()
         .map(r -> new ReviewSummary(r.getReviewId(), r.getAuthor(), r.getSubject(), r.getContent()))
         .collect(Collectors.toList());
@@ -162,9 +428,28 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     String productAddress = product.getServiceAddress();
     String reviewAddress = (reviews != null && reviews.size() > 0) ? reviews.get(0).getServiceAddress() : "";
     String recommendationAddress = (recommendations != null && recommendations.size() > 0) ? recommendations.get(0).getServiceAddress() : "";
-    ServiceAddresses serviceAddresses = new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
+    ServiceAddresses serviceAddresses = !selection.includes(FieldSelection.SERVICE_ADDRESSES) ? null :
+      new ServiceAddresses(serviceAddress, productAddress, reviewAddress, recommendationAddress);
+
+    // 5. Mark product info served from the last known good store while the product service is unavailable
+    boolean stale = product instanceof LastKnownGoodProduct;
+
+    // 6. Compute the ETag from the versions of the entities and the parts of the aggregate that are returned,
+    //    the fields are included since a recreated entity starts over at version 0 and a replayed create event
+    //    may overwrite an entity in place without changing its version
+    String etag = ConditionalGet.etag(
+      Arrays.asList(productId, product.getVersion(), name, weight),
+      etagParts(recommendationSummaries == null ? null : recommendations,
+        r -> Arrays.asList(r.getRecommendationId(), r.getVersion(), r.getAuthor(), r.getRate(), r.getContent())),
+      etagParts(reviewSummaries == null ? null : reviews,
+        r -> Arrays.asList(r.getReviewId(), r.getVersion(), r.getAuthor(), r.getSubject(), r.getContent())),
+      selection, stale, nextCursor);
+
+    return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses, stale, nextCursor, etag);
+  }
 
-    return new ProductAggregate(productId, name, weight, recommendationSummaries, reviewSummaries, serviceAddresses);
+  private <T> List<List<Object>> etagParts(List<T> entities, Function<T, List<Object>> parts) {
+    return entities == null ? List.of() : entities.stream().map(parts).collect(Collectors.toList());
   }
 
   private Mono<SecurityContext> getLogAuthorizationInfoMono() {
@@ -175,6 +460,11 @@ public class ProductCompositeServiceImpl implements ProductCompositeService {
     return ReactiveSecurityContextHolder.getContext().defaultIfEmpty(nullSecCtx);
   }
 
+  private void invalidateCaches(int productId) {
+    aggregateCache.invalidate(productId);
+    responseCache.invalidate(productId);
+  }
+
   private void logAuthorizationInfo(SecurityContext sc) {
     if (sc != null && sc.getAuthentication() != null && sc.getAuthentication() instanceof JwtAuthenticationToken) {
       Jwt jwtToken = ((JwtAuthenticationToken)sc.getAuthentication()).getToken();
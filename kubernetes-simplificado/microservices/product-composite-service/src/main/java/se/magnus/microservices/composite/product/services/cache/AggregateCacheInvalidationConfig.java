@@ -0,0 +1,59 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import se.magnus.api.event.Event;
+
+/**
+ * Invalidates the cached aggregates and responses of a product on its product, recommendation and review events.
+ *
+ * Only created if one of the caches is enabled, otherwise there is no aggregateCacheInvalidator function to bind
+ * and no queue is declared for it.
+ */
+@Configuration
+@ConditionalOnExpression("${app.aggregate-cache.enabled:false} or ${app.response-cache.enabled:false}")
+public class AggregateCacheInvalidationConfig {
+
+  private static final Logger LOG = LoggerFactory.getLogger(AggregateCacheInvalidationConfig.class);
+
+  private final ProductAggregateCache aggregateCache;
+  private final ResponseBytesCache responseCache;
+  private final LastKnownGoodProductStore lastKnownGoodProducts;
+
+  @Autowired
+  public AggregateCacheInvalidationConfig(
+    ProductAggregateCache aggregateCache,
+    ResponseBytesCache responseCache,
+    LastKnownGoodProductStore lastKnownGoodProducts) {
+
+    this.aggregateCache = aggregateCache;
+    this.responseCache = responseCache;
+    this.lastKnownGoodProducts = lastKnownGoodProducts;
+  }
+
+  @Bean
+  public Consumer<Event<Integer, Object>> aggregateCacheInvalidator() {
+    return event -> {
+      if (event.getKey() == null) {
+        LOG.warn("Ignores a {} event without key, created at {}", event.getEventType(), event.getEventCreatedAt());
+        return;
+      }
+
+      LOG.debug("Invalidates cached aggregate for productId: {} on a {} event", event.getKey(), event.getEventType());
+      aggregateCache.invalidate(event.getKey());
+      responseCache.invalidate(event.getKey());
+
+      // Deleted products must not be served as fallback values
+      if (event.getEventType() == DELETE) {
+        lastKnownGoodProducts.remove(event.getKey());
+      }
+    };
+  }
+}
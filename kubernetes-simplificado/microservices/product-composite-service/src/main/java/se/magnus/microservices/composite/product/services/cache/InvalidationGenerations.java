@@ -0,0 +1,68 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Generations of the products of a cache, bumped on every invalidation of a product.
+ *
+ * The generation is read before an entry is loaded and checked again after it is put, so that an entry loaded before
+ * a concurrent invalidation is dropped. The products are striped over a fixed number of generations, an invalidation
+ * of a product may drop a concurrently loaded entry of another product of the same stripe.
+ *
+ * A product is invalidated when its events are published or received, i.e. before or while the core services apply
+ * them. Entries loaded within the settle time after an invalidation may still hold the old state and are not kept.
+ */
+final class InvalidationGenerations {
+
+  private static final int STRIPES = 1024;
+
+  private final AtomicLongArray generations = new AtomicLongArray(STRIPES);
+
+  // System.nanoTime() of the last invalidation of each stripe, only meaningful once its generation is above 0
+  private final AtomicLongArray invalidatedAt = new AtomicLongArray(STRIPES);
+
+  private final long settleNanos;
+
+  InvalidationGenerations(Duration settleTime) {
+    this.settleNanos = settleTime.toNanos();
+  }
+
+  long get(int productId) {
+    return generations.get(stripe(productId));
+  }
+
+  void invalidate(int productId) {
+    int stripe = stripe(productId);
+
+    // The time is set first, so that it is seen by anyone who sees the new generation
+    invalidatedAt.set(stripe, System.nanoTime());
+    generations.incrementAndGet(stripe);
+  }
+
+  /**
+   * Puts the entry, and drops it again if the product was invalidated since the generation was read or less than the
+   * settle time ago.
+   *
+   * @return true if the entry was kept
+   */
+  <V> boolean putIfCurrent(Cache<Integer, V> cache, int productId, long generation, V value) {
+    cache.put(productId, value);
+
+    // Re-check after the put, an invalidation may have raced with the load
+    if (get(productId) != generation || isSettling(productId, generation)) {
+      cache.invalidate(productId);
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isSettling(int productId, long generation) {
+    return generation > 0 && System.nanoTime() - invalidatedAt.get(stripe(productId)) < settleNanos;
+  }
+
+  private static int stripe(int productId) {
+    return Math.floorMod(productId, STRIPES);
+  }
+}
@@ -0,0 +1,20 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import java.time.Instant;
+import se.magnus.api.core.product.Product;
+
+/**
+ * A product served from the {@link LastKnownGoodProductStore}, i.e. possibly stale.
+ */
+public class LastKnownGoodProduct extends Product {
+  private final Instant storedAt;
+
+  public LastKnownGoodProduct(int productId, String name, int weight, String serviceAddress, Instant storedAt) {
+    super(productId, name, weight, serviceAddress);
+    this.storedAt = storedAt;
+  }
+
+  public Instant getStoredAt() {
+    return storedAt;
+  }
+}
@@ -0,0 +1,232 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.magnus.api.core.product.Product;
+
+/**
+ * Bounded, off-heap store of the last successfully fetched version of each product, used as
+ * fallback when the product circuit breaker is open.
+ *
+ * The store is a fixed size, two-way set-associative table in a direct ByteBuffer. Each entry
+ * occupies one 64 byte slot, so one million entries take 64 MiB outside of the Java heap.
+ * When both slots of a bucket are taken, the oldest entry is replaced. Products with a name
+ * longer than {@value #MAX_NAME_BYTES} bytes in UTF-8 are not stored.
+ *
+ * Slot layout: productId (int, 0 = empty), weight (int), storedAt (long, epoch millis),
+ * name length (short) and the UTF-8 encoded name.
+ */
+@Component
+public class LastKnownGoodProductStore {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LastKnownGoodProductStore.class);
+
+  public static final String CACHE_NAME = "product-last-known-good";
+
+  static final int SLOT_SIZE = 64;
+  static final int WAYS = 2;
+
+  private static final int PRODUCT_ID_OFFSET = 0;
+  private static final int WEIGHT_OFFSET = 4;
+  private static final int STORED_AT_OFFSET = 8;
+  private static final int NAME_LENGTH_OFFSET = 16;
+  private static final int NAME_OFFSET = 18;
+
+  static final int MAX_NAME_BYTES = SLOT_SIZE - NAME_OFFSET;
+
+  private static final int LOCK_STRIPES = 64;
+
+  private final ByteBuffer slots;
+  private final int bucketMask;
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  private final Clock clock;
+
+  private final AtomicInteger size = new AtomicInteger();
+  private final Counter hits;
+  private final Counter misses;
+  private final Counter puts;
+  private final Counter evictions;
+  private final Counter rejected;
+
+  @Autowired
+  public LastKnownGoodProductStore(
+    @Value("${app.product-fallback-cache.capacity:65536}") int capacity,
+    MeterRegistry meterRegistry) {
+
+    this(capacity, meterRegistry, Clock.systemUTC());
+  }
+
+  LastKnownGoodProductStore(int capacity, MeterRegistry meterRegistry, Clock clock) {
+
+    // Round down to a power of two number of buckets, to be able to mask the hash
+    int buckets = Integer.highestOneBit(Math.max(capacity / WAYS, 1));
+    this.bucketMask = buckets - 1;
+    this.slots = ByteBuffer.allocateDirect(buckets * WAYS * SLOT_SIZE);
+    this.clock = clock;
+
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+
+    this.hits = cacheCounter(meterRegistry, "cache.gets", "result", "hit");
+    this.misses = cacheCounter(meterRegistry, "cache.gets", "result", "miss");
+    this.puts = cacheCounter(meterRegistry, "cache.puts", null, null);
+    this.evictions = cacheCounter(meterRegistry, "cache.evictions", null, null);
+    this.rejected = cacheCounter(meterRegistry, "cache.puts.rejected", null, null);
+    Gauge.builder("cache.size", size, AtomicInteger::get).tag("cache", CACHE_NAME).register(meterRegistry);
+
+    LOG.info("Created a last known good product store with {} slots, using {} KiB off heap", buckets * WAYS, slots.capacity() / 1024);
+  }
+
+  public void put(Product product) {
+
+    int productId = product.getProductId();
+    if (productId < 1) {
+      return;
+    }
+
+    byte[] name = product.getName() == null ? null : product.getName().getBytes(UTF_8);
+    int bucket = bucket(productId);
+
+    synchronized (lock(bucket)) {
+      int slot = findSlot(bucket, productId);
+
+      if (name != null && name.length > MAX_NAME_BYTES) {
+        // Better to have no fallback value than a truncated one
+        LOG.debug("Name of productId: {} is too long to be stored, {} bytes", productId, name.length);
+        rejected.increment();
+        if (slot >= 0) {
+          clearSlot(slot);
+        }
+        return;
+      }
+
+      if (slot < 0) {
+        slot = selectSlotToReplace(bucket);
+      }
+
+      int offset = slot * SLOT_SIZE;
+      slots.putInt(offset + PRODUCT_ID_OFFSET, productId);
+      slots.putInt(offset + WEIGHT_OFFSET, product.getWeight());
+      slots.putLong(offset + STORED_AT_OFFSET, clock.millis());
+      slots.putShort(offset + NAME_LENGTH_OFFSET, (short) (name == null ? -1 : name.length));
+      if (name != null) {
+        slots.put(offset + NAME_OFFSET, name);
+      }
+    }
+    puts.increment();
+  }
+
+  public Optional<LastKnownGoodProduct> get(int productId, String serviceAddress) {
+
+    if (productId < 1) {
+      misses.increment();
+      return Optional.empty();
+    }
+
+    int bucket = bucket(productId);
+    synchronized (lock(bucket)) {
+      int slot = findSlot(bucket, productId);
+      if (slot < 0) {
+        misses.increment();
+        return Optional.empty();
+      }
+
+      int offset = slot * SLOT_SIZE;
+      int weight = slots.getInt(offset + WEIGHT_OFFSET);
+      Instant storedAt = Instant.ofEpochMilli(slots.getLong(offset + STORED_AT_OFFSET));
+      int nameLength = slots.getShort(offset + NAME_LENGTH_OFFSET);
+      String name = null;
+      if (nameLength >= 0) {
+        byte[] nameBytes = new byte[nameLength];
+        slots.get(offset + NAME_OFFSET, nameBytes);
+        name = new String(nameBytes, UTF_8);
+      }
+
+      hits.increment();
+      return Optional.of(new LastKnownGoodProduct(productId, name, weight, serviceAddress, storedAt));
+    }
+  }
+
+  public void remove(int productId) {
+
+    if (productId < 1) {
+      return;
+    }
+
+    int bucket = bucket(productId);
+    synchronized (lock(bucket)) {
+      int slot = findSlot(bucket, productId);
+      if (slot >= 0) {
+        clearSlot(slot);
+      }
+    }
+  }
+
+  private int findSlot(int bucket, int productId) {
+    int firstSlot = bucket * WAYS;
+    for (int slot = firstSlot; slot < firstSlot + WAYS; slot++) {
+      if (slots.getInt(slot * SLOT_SIZE + PRODUCT_ID_OFFSET) == productId) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private int selectSlotToReplace(int bucket) {
+    int firstSlot = bucket * WAYS;
+    int oldestSlot = firstSlot;
+    long oldestStoredAt = Long.MAX_VALUE;
+
+    for (int slot = firstSlot; slot < firstSlot + WAYS; slot++) {
+      int offset = slot * SLOT_SIZE;
+      if (slots.getInt(offset + PRODUCT_ID_OFFSET) == 0) {
+        size.incrementAndGet();
+        return slot;
+      }
+      long storedAt = slots.getLong(offset + STORED_AT_OFFSET);
+      if (storedAt < oldestStoredAt) {
+        oldestStoredAt = storedAt;
+        oldestSlot = slot;
+      }
+    }
+
+    evictions.increment();
+    return oldestSlot;
+  }
+
+  private void clearSlot(int slot) {
+    slots.putInt(slot * SLOT_SIZE + PRODUCT_ID_OFFSET, 0);
+    size.decrementAndGet();
+  }
+
+  private int bucket(int productId) {
+    int hash = productId * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & bucketMask;
+  }
+
+  private Object lock(int bucket) {
+    return locks[bucket & (LOCK_STRIPES - 1)];
+  }
+
+  private static Counter cacheCounter(MeterRegistry meterRegistry, String name, String tagKey, String tagValue) {
+    Counter.Builder builder = Counter.builder(name).tag("cache", CACHE_NAME);
+    if (tagKey != null) {
+      builder.tag(tagKey, tagValue);
+    }
+    return builder.register(meterRegistry);
+  }
+}
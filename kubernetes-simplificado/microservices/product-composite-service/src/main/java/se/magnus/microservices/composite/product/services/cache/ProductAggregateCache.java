@@ -0,0 +1,145 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import se.magnus.api.composite.product.ProductAggregate;
+
+/**
+ * Bounded in-process cache of assembled product aggregates, keyed by productId.
+ *
+ * Entries are evicted on size and time to live, and invalidated when the composite
+ * service itself creates or deletes a product and when product, recommendation or review
+ * events are received. Aggregates loaded within the settle time after an invalidation are
+ * not cached, since the core services may not have applied the events yet. Aggregates built
+ * from fallback values or partial responses are never cached, see {@link #markDegraded()}.
+ */
+@Component
+public class ProductAggregateCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductAggregateCache.class);
+
+  public static final String CACHE_NAME = "product-composite-aggregates";
+
+  private static final String DEGRADED_KEY = ProductAggregateCache.class.getName() + ".degraded";
+
+  private final boolean enabled;
+  private final Cache<Integer, ProductAggregate> cache;
+  private final Counter invalidations;
+
+  // Used to drop aggregates that were loaded before an invalidation
+  private final InvalidationGenerations generations;
+
+  @Autowired
+  public ProductAggregateCache(
+    @Value("${app.aggregate-cache.enabled:false}") boolean enabled,
+    @Value("${app.aggregate-cache.maximum-size:10000}") long maximumSize,
+    @Value("${app.aggregate-cache.time-to-live:30s}") Duration timeToLive,
+    @Value("${app.aggregate-cache.settle-time:2s}") Duration settleTime,
+    MeterRegistry meterRegistry) {
+
+    this.enabled = enabled;
+    this.generations = new InvalidationGenerations(settleTime);
+    this.cache = Caffeine.newBuilder()
+      .maximumSize(maximumSize)
+      .expireAfterWrite(timeToLive)
+      .recordStats()
+      .build();
+    this.invalidations = Counter.builder("cache.invalidations")
+      .tag("cache", CACHE_NAME)
+      .description("The number of entries invalidated by create, delete and change events")
+      .register(meterRegistry);
+
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+    LOG.info("Aggregate cache enabled: {}, maximum size: {}, time to live: {}, settle time: {}", enabled, maximumSize, timeToLive, settleTime);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Returns the cached aggregate for the product or, on a miss, subscribes to the loader and
+   * caches its result unless it is degraded or the product was invalidated while loading.
+   */
+  public Mono<ProductAggregate> get(int productId, Supplier<Mono<ProductAggregate>> loader) {
+
+    if (!enabled) {
+      return loader.get();
+    }
+
+    return Mono.defer(() -> {
+      ProductAggregate cached = cache.getIfPresent(productId);
+      if (cached != null) {
+        LOG.debug("Found aggregate for productId: {} in cache", productId);
+        return Mono.just(cached);
+      }
+
+      long generation = generations.get(productId);
+      AtomicBoolean degraded = new AtomicBoolean(false);
+
+      return loader.get()
+        .doOnNext(aggregate -> {
+          if (degraded.get()) {
+            LOG.debug("Will not cache a degraded aggregate for productId: {}", productId);
+          } else {
+            put(productId, generation, aggregate);
+          }
+        })
+        .contextWrite(trackDegraded(degraded))
+        // Pass the flag on to an outer tracker, see ResponseBytesCacheFilter
+        .flatMap(aggregate -> degraded.get() ? markDegraded().thenReturn(aggregate) : Mono.just(aggregate));
+    });
+  }
+
+  public void invalidate(int productId) {
+
+    if (!enabled) {
+      return;
+    }
+
+    LOG.debug("Invalidates aggregate for productId: {}", productId);
+    generations.invalidate(productId);
+    cache.invalidate(productId);
+    invalidations.increment();
+  }
+
+  /**
+   * Flags the aggregate currently being loaded as degraded, i.e. built from a fallback value
+   * or a partial response, so that it is not cached. A no-op outside of {@link #get} and
+   * {@link #trackDegraded}.
+   */
+  public static Mono<Void> markDegraded() {
+    return Mono.deferContextual(ctx -> {
+      ctx.<AtomicBoolean>getOrEmpty(DEGRADED_KEY).ifPresent(degraded -> degraded.set(true));
+      return Mono.empty();
+    });
+  }
+
+  /**
+   * Tracks {@link #markDegraded()} calls of the subscribers below it in the given flag.
+   */
+  public static Function<Context, Context> trackDegraded(AtomicBoolean degraded) {
+    return ctx -> ctx.put(DEGRADED_KEY, degraded);
+  }
+
+  private void put(int productId, long generation, ProductAggregate aggregate) {
+    if (!generations.putIfCurrent(cache, productId, generation, aggregate)) {
+      LOG.debug("Aggregate for productId: {} was invalidated while loading, drops it", productId);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Bounded cache of encoded JSON responses of hot composite products, keyed by productId, see {@link ResponseBytesCacheFilter}.
+ *
+ * Entries hold the JSON bytes, optionally a gzipped copy of them, and the ETag of the response, which is based on the
+ * versions of the entities. They are evicted on their total size in bytes and on time to live, and invalidated on the
+ * same create and delete requests and product, recommendation and review events as the {@link ProductAggregateCache}.
+ */
+@Component
+public class ResponseBytesCache {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseBytesCache.class);
+
+  public static final String CACHE_NAME = "product-composite-responses";
+
+  private final boolean enabled;
+  private final boolean gzip;
+  private final Cache<Integer, Entry> cache;
+
+  // Used to drop responses that were encoded before an invalidation
+  private final InvalidationGenerations generations;
+
+  @Autowired
+  public ResponseBytesCache(
+    @Value("${app.response-cache.enabled:false}") boolean enabled,
+    @Value("${app.response-cache.gzip:true}") boolean gzip,
+    @Value("${app.response-cache.maximum-size:64MB}") DataSize maximumSize,
+    @Value("${app.response-cache.time-to-live:30s}") Duration timeToLive,
+    @Value("${app.response-cache.settle-time:2s}") Duration settleTime,
+    MeterRegistry meterRegistry) {
+
+    this.enabled = enabled;
+    this.generations = new InvalidationGenerations(settleTime);
+    this.gzip = gzip;
+    this.cache = Caffeine.newBuilder()
+      .maximumWeight(maximumSize.toBytes())
+      .weigher((Integer productId, Entry entry) -> entry.size())
+      .expireAfterWrite(timeToLive)
+      .recordStats()
+      .build();
+
+    CaffeineCacheMetrics.monitor(meterRegistry, cache, CACHE_NAME);
+
+    LOG.info("Response bytes cache enabled: {}, gzip: {}, maximum size: {}, time to live: {}, settle time: {}",
+      enabled, gzip, maximumSize, timeToLive, settleTime);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public Entry get(int productId) {
+    return cache.getIfPresent(productId);
+  }
+
+  /**
+   * @return the generation of the product, to pass to {@link #put} once its response has been encoded
+   */
+  public long generation(int productId) {
+    return generations.get(productId);
+  }
+
+  public void put(int productId, long generation, byte[] json, String etag) {
+    if (!generations.putIfCurrent(cache, productId, generation, new Entry(json, gzip ? gzip(json) : null, etag))) {
+      LOG.debug("Response for productId: {} was invalidated while encoding or is settling, drops it", productId);
+    }
+  }
+
+  public void invalidate(int productId) {
+
+    if (!enabled) {
+      return;
+    }
+
+    LOG.debug("Invalidates response for productId: {}", productId);
+    generations.invalidate(productId);
+    cache.invalidate(productId);
+  }
+
+  private static byte[] gzip(byte[] bytes) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 64);
+    try (GZIPOutputStream gzipOut = new GZIPOutputStream(out)) {
+      gzipOut.write(bytes);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toByteArray();
+  }
+
+  public static final class Entry {
+    private final byte[] json;
+    private final byte[] gzippedJson;
+    private final String etag;
+
+    private Entry(byte[] json, byte[] gzippedJson, String etag) {
+      this.json = json;
+      this.gzippedJson = gzippedJson;
+      this.etag = etag;
+    }
+
+    public byte[] getJson() {
+      return json;
+    }
+
+    /**
+     * @return the gzipped JSON, or null if gzip is disabled
+     */
+    public byte[] getGzippedJson() {
+      return gzippedJson;
+    }
+
+    public String getEtag() {
+      return etag;
+    }
+
+    int size() {
+      return json.length + (gzippedJson == null ? 0 : gzippedJson.length);
+    }
+  }
+}
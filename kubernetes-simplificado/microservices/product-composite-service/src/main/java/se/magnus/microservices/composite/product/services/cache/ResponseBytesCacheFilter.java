@@ -0,0 +1,191 @@
+package se.magnus.microservices.composite.product.services.cache;
+
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+import static org.springframework.http.HttpHeaders.VARY;
+import static org.springframework.http.HttpStatus.OK;
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.reactivestreams.Publisher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Serves GET /product-composite/{productId} requests without query parameters from the {@link ResponseBytesCache},
+ * by writing the cached JSON bytes, or their gzipped copy if the client accepts it, as they are. If-None-Match is
+ * checked against the cached ETag, a match is answered with 304 without a body.
+ *
+ * On a miss, the response written by the controller is captured and cached if it is a 200 and the aggregate was not
+ * degraded, see {@link ProductAggregateCache#markDegraded()}. Runs after the security filters, so cached responses are
+ * only served to authorized clients.
+ */
+@Component
+@Order(0)
+public class ResponseBytesCacheFilter implements WebFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ResponseBytesCacheFilter.class);
+
+  private static final Pattern PRODUCT_PATH = Pattern.compile("/product-composite/(\\d{1,9})");
+  private static final String GZIP = "gzip";
+
+  private final ResponseBytesCache cache;
+
+  @Autowired
+  public ResponseBytesCacheFilter(ResponseBytesCache cache) {
+    this.cache = cache;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+    if (!cache.isEnabled()) {
+      return chain.filter(exchange);
+    }
+
+    ServerHttpRequest request = exchange.getRequest();
+    Matcher matcher = PRODUCT_PATH.matcher(request.getPath().pathWithinApplication().value());
+    if (request.getMethod() != HttpMethod.GET || !matcher.matches() || !request.getQueryParams().isEmpty() || !acceptsJson(request)) {
+      return chain.filter(exchange);
+    }
+
+    int productId = Integer.parseInt(matcher.group(1));
+
+    ResponseBytesCache.Entry entry = cache.get(productId);
+    if (entry != null) {
+      LOG.debug("Found response for productId: {} in cache", productId);
+      return writeEntry(exchange, entry);
+    }
+
+    long generation = cache.generation(productId);
+    AtomicBoolean degraded = new AtomicBoolean(false);
+
+    return chain.filter(exchange.mutate().response(new CapturingResponse(exchange.getResponse(), productId, generation, degraded)).build())
+      .contextWrite(ProductAggregateCache.trackDegraded(degraded));
+  }
+
+  private Mono<Void> writeEntry(ServerWebExchange exchange, ResponseBytesCache.Entry entry) {
+
+    if (exchange.checkNotModified(entry.getEtag())) {
+      return exchange.getResponse().setComplete();
+    }
+
+    ServerHttpResponse response = exchange.getResponse();
+    boolean gzip = entry.getGzippedJson() != null && acceptsGzip(exchange.getRequest());
+    byte[] body = gzip ? entry.getGzippedJson() : entry.getJson();
+
+    response.setStatusCode(OK);
+    response.getHeaders().setContentType(APPLICATION_JSON);
+    response.getHeaders().setContentLength(body.length);
+    if (entry.getGzippedJson() != null) {
+      response.getHeaders().add(VARY, ACCEPT_ENCODING);
+    }
+    if (gzip) {
+      response.getHeaders().set(CONTENT_ENCODING, GZIP);
+    }
+    return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(body)));
+  }
+
+  private static boolean acceptsJson(ServerHttpRequest request) {
+    List<MediaType> accept = request.getHeaders().getAccept();
+    return accept.isEmpty() || accept.stream().anyMatch(mediaType -> mediaType.includes(APPLICATION_JSON));
+  }
+
+  // gzip is accepted if it is listed, or if it is not listed and * is, with a q value that is not 0
+  private static boolean acceptsGzip(ServerHttpRequest request) {
+    Double gzipQuality = null;
+    Double anyQuality = null;
+    for (String value : request.getHeaders().getOrEmpty(ACCEPT_ENCODING)) {
+      for (String coding : value.split(",")) {
+        String[] parts = coding.split(";");
+        String name = parts[0].trim();
+        if (GZIP.equalsIgnoreCase(name)) {
+          gzipQuality = quality(parts);
+        } else if ("*".equals(name)) {
+          anyQuality = quality(parts);
+        }
+      }
+    }
+    Double quality = gzipQuality != null ? gzipQuality : anyQuality;
+    return quality != null && quality > 0;
+  }
+
+  // An invalid q value is taken as 0, i.e. the coding is not accepted
+  private static double quality(String[] parts) {
+    for (int i = 1; i < parts.length; i++) {
+      String[] parameter = parts[i].split("=", 2);
+      if (parameter.length == 2 && "q".equalsIgnoreCase(parameter[0].trim())) {
+        try {
+          return Double.parseDouble(parameter[1].trim());
+        } catch (NumberFormatException e) {
+          return 0;
+        }
+      }
+    }
+    return 1;
+  }
+
+  private class CapturingResponse extends ServerHttpResponseDecorator {
+
+    private final int productId;
+    private final long generation;
+    private final AtomicBoolean degraded;
+
+    CapturingResponse(ServerHttpResponse delegate, int productId, long generation, AtomicBoolean degraded) {
+      super(delegate);
+      this.productId = productId;
+      this.generation = generation;
+      this.degraded = degraded;
+    }
+
+    @Override
+    public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+
+      if (!isCacheable()) {
+        return super.writeWith(body);
+      }
+
+      return DataBufferUtils.join(Flux.from(body))
+        .flatMap(joined -> {
+          byte[] bytes = new byte[joined.readableByteCount()];
+          joined.read(bytes);
+          DataBufferUtils.release(joined);
+
+          if (degraded.get()) {
+            LOG.debug("Will not cache a degraded response for productId: {}", productId);
+          } else {
+            cache.put(productId, generation, bytes, getHeaders().getETag());
+          }
+          return super.writeWith(Mono.just(bufferFactory().wrap(bytes)));
+        });
+    }
+
+    private boolean isCacheable() {
+      // No status set means the default 200
+      HttpStatusCode status = getStatusCode();
+      return (status == null || OK.equals(status))
+        && APPLICATION_JSON.isCompatibleWith(getHeaders().getContentType())
+        && !getHeaders().containsKey(CONTENT_ENCODING)
+        && getHeaders().getETag() != null;
+    }
+  }
+}
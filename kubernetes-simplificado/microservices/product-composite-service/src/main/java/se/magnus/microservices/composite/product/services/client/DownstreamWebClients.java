@@ -0,0 +1,165 @@
+package se.magnus.microservices.composite.product.services.client;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.internal.shaded.reactor.pool.PoolAcquirePendingLimitException;
+import reactor.netty.internal.shaded.reactor.pool.PoolAcquireTimeoutException;
+import reactor.netty.resources.ConnectionProvider;
+import se.magnus.api.exceptions.DeadlineExceededException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.composite.product.services.limiting.ConcurrencyLimiters;
+import se.magnus.util.http.Deadline;
+
+/**
+ * One WebClient per downstream service, each with its own connection pool and bulkhead,
+ * so that a slow downstream service can not use up the connections to the other ones.
+ *
+ * The connection pools are configured per downstream service:
+ * - app.downstream.[downstream].max-connections: defaults to 50
+ * - app.downstream.[downstream].pending-acquire-max-count: defaults to 100
+ * - app.downstream.[downstream].pending-acquire-timeout: defaults to 1s
+ * - app.downstream.[downstream].max-idle-time: defaults to 30s
+ *
+ * The bulkheads are configured as resilience4j.bulkhead.instances.[downstream]. Calls rejected by a full bulkhead or
+ * connection pool fail with a {@link ServiceUnavailableException}, i.e. 503, that the circuit breakers ignore. Pool metrics are
+ * exported as reactor.netty.connection.provider.* with the downstream service as the name tag.
+ * In front of the static bulkheads, the calls are limited by adaptive concurrency limits, see {@link ConcurrencyLimiters}.
+ * The remaining deadline of the inbound request, if any, is passed on in the {@value Deadline#HEADER} header.
+ *
+ * The wire format is configured by app.downstream.wire-format, json or smile, defaults to json.
+ * Smile is a binary form of JSON, and requires that the core services can produce it.
+ *
+ * If app.downstream.http2.enabled is true, defaults to false, the calls use HTTP/2 over cleartext (h2c)
+ * and concurrent calls to the same core service are multiplexed over a few connections. Connections
+ * to core services that do not support h2c fall back to HTTP/1.1.
+ */
+@Component
+public class DownstreamWebClients implements DisposableBean {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DownstreamWebClients.class);
+
+  public static final String PRODUCT = "product";
+  public static final String RECOMMENDATION = "recommendation";
+  public static final String REVIEW = "review";
+
+  public static final MediaType APPLICATION_SMILE = MediaType.parseMediaType("application/x-jackson-smile");
+
+  private final Map<String, ConnectionProvider> connectionProviders = new HashMap<>();
+  private final Map<String, WebClient> webClients = new HashMap<>();
+
+  @Autowired
+  public DownstreamWebClients(
+    WebClient.Builder builder,
+    BulkheadRegistry bulkheadRegistry,
+    ConcurrencyLimiters concurrencyLimiters,
+    Environment environment) {
+
+    MediaType wireFormat = "smile".equals(environment.getProperty("app.downstream.wire-format", "json")) ?
+      APPLICATION_SMILE : MediaType.APPLICATION_JSON;
+    boolean http2 = environment.getProperty("app.downstream.http2.enabled", Boolean.class, false);
+    LOG.info("Wire format for calls to the core services: {}, HTTP/2: {}", wireFormat, http2);
+
+    for (String downstream : List.of(PRODUCT, RECOMMENDATION, REVIEW)) {
+      ConnectionProvider connectionProvider = createConnectionProvider(downstream, environment);
+      Bulkhead bulkhead = bulkheadRegistry.bulkhead(downstream);
+
+      connectionProviders.put(downstream, connectionProvider);
+      webClients.put(downstream, builder.clone()
+        .clientConnector(new ReactorClientHttpConnector(createHttpClient(connectionProvider, http2)))
+        .defaultHeader(HttpHeaders.ACCEPT, wireFormat.toString())
+        .filter(propagateDeadline(downstream))
+        // Fails fast when the adaptive limit is reached, before the call waits for the bulkhead or a connection
+        .filter(concurrencyLimiters.exchangeFilter(downstream))
+        // The permit is held until the response headers are received, the body is limited by the connection pool
+        .filter((request, next) -> next.exchange(request).transform(BulkheadOperator.of(bulkhead))
+          .onErrorMap(DownstreamWebClients::isSaturated, e -> new ServiceUnavailableException("Too many concurrent calls to " + downstream, e)))
+        .build());
+    }
+  }
+
+  public WebClient get(String downstream) {
+    WebClient webClient = webClients.get(downstream);
+    if (webClient == null) {
+      throw new IllegalArgumentException("Unknown downstream service: " + downstream);
+    }
+    return webClient;
+  }
+
+  @Override
+  public void destroy() {
+    connectionProviders.values().forEach(ConnectionProvider::dispose);
+  }
+
+  // Passes what is left of the deadline of the inbound request on to the core service, see Deadline
+  private ExchangeFilterFunction propagateDeadline(String downstream) {
+    return (request, next) -> Mono.deferContextual(ctx -> {
+      Optional<Deadline> deadline = Deadline.current(ctx);
+      if (deadline.isEmpty()) {
+        return next.exchange(request);
+      }
+      if (deadline.get().isExpired()) {
+        return Mono.error(new DeadlineExceededException("Deadline passed before the call to " + downstream));
+      }
+      return next.exchange(ClientRequest.from(request).header(Deadline.HEADER, deadline.get().toHeader()).build());
+    });
+  }
+
+  // A full bulkhead or connection pool is load shedding, like the concurrency limiter, and not a failure of the downstream service
+  private static boolean isSaturated(Throwable error) {
+    if (error instanceof BulkheadFullException) {
+      return true;
+    }
+    Throwable cause = error instanceof WebClientRequestException ? error.getCause() : error;
+    return cause instanceof PoolAcquireTimeoutException || cause instanceof PoolAcquirePendingLimitException;
+  }
+
+  private HttpClient createHttpClient(ConnectionProvider connectionProvider, boolean http2) {
+    HttpClient httpClient = HttpClient.create(connectionProvider);
+
+    // With both protocols an upgrade to h2c is requested, and HTTP/1.1 is used if the upgrade is declined
+    return http2 ? httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11) : httpClient;
+  }
+
+  private ConnectionProvider createConnectionProvider(String downstream, Environment environment) {
+    String prefix = "app.downstream." + downstream + ".";
+    int maxConnections = environment.getProperty(prefix + "max-connections", Integer.class, 50);
+    int pendingAcquireMaxCount = environment.getProperty(prefix + "pending-acquire-max-count", Integer.class, 100);
+    Duration pendingAcquireTimeout = DurationStyle.detectAndParse(environment.getProperty(prefix + "pending-acquire-timeout", "1s"));
+    Duration maxIdleTime = DurationStyle.detectAndParse(environment.getProperty(prefix + "max-idle-time", "30s"));
+
+    LOG.info("Connection pool for {}, max connections: {}, max pending acquires: {}, pending acquire timeout: {}, max idle time: {}",
+      downstream, maxConnections, pendingAcquireMaxCount, pendingAcquireTimeout, maxIdleTime);
+
+    return ConnectionProvider.builder(downstream)
+      .maxConnections(maxConnections)
+      .pendingAcquireMaxCount(pendingAcquireMaxCount)
+      .pendingAcquireTimeout(pendingAcquireTimeout)
+      .maxIdleTime(maxIdleTime)
+      .metrics(true)
+      .build();
+  }
+}
@@ -0,0 +1,147 @@
+package se.magnus.microservices.composite.product.services.coalescing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.util.http.Deadline;
+
+/**
+ * Shares one in-flight downstream call per (downstream, key) among concurrent subscribers.
+ *
+ * The first subscriber starts the call, subscribers arriving while it is in flight get the
+ * same elements replayed. The call is cancelled when all of its subscribers have cancelled,
+ * and the in-flight entry is removed as soon as the call completes, fails or is cancelled.
+ *
+ * The call is made in the Reactor context of the subscriber that started it, i.e. with its deadline, see
+ * {@link Deadline}, and its trace. A subscriber therefore only joins a call whose deadline is the same as or later
+ * than its own, otherwise it starts a new call that later subscribers join instead.
+ */
+@Component
+public class RequestCoalescer {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RequestCoalescer.class);
+
+  private final boolean enabled;
+  private final MeterRegistry meterRegistry;
+  private final Map<InFlightKey, InFlightCall> inFlight = new ConcurrentHashMap<>();
+  private final Map<String, Counter> executedCounters = new ConcurrentHashMap<>();
+  private final Map<String, Counter> collapsedCounters = new ConcurrentHashMap<>();
+
+  @Autowired
+  public RequestCoalescer(
+    @Value("${app.request-coalescing.enabled:true}") boolean enabled,
+    MeterRegistry meterRegistry) {
+
+    this.enabled = enabled;
+    this.meterRegistry = meterRegistry;
+
+    Gauge.builder("request.coalescing.in-flight", inFlight, Map::size)
+      .description("The number of shared downstream calls currently in flight")
+      .register(meterRegistry);
+  }
+
+  public <T> Mono<T> mono(String downstream, Object key, Supplier<Mono<T>> call) {
+    return flux(downstream, key, () -> call.get().flux()).singleOrEmpty();
+  }
+
+  @SuppressWarnings("unchecked")
+  public <T> Flux<T> flux(String downstream, Object key, Supplier<Flux<T>> call) {
+
+    if (!enabled) {
+      return call.get();
+    }
+
+    return Flux.deferContextual(ctx -> {
+      InFlightKey inFlightKey = new InFlightKey(downstream, key);
+      Optional<Deadline> deadline = Deadline.current(ctx);
+      InFlightCall[] created = new InFlightCall[1];
+
+      InFlightCall shared = inFlight.compute(inFlightKey, (k, existing) ->
+        existing != null && existing.outlasts(deadline) ? existing : (created[0] = share(k, deadline, call)));
+
+      if (shared == created[0]) {
+        counter(executedCounters, downstream, "executed").increment();
+      } else {
+        LOG.debug("Joins an in-flight call to {} for key: {}", downstream, key);
+        counter(collapsedCounters, downstream, "collapsed").increment();
+      }
+      return (Flux<T>) shared.flux;
+    });
+  }
+
+  private <T> InFlightCall share(InFlightKey inFlightKey, Optional<Deadline> deadline, Supplier<Flux<T>> call) {
+    InFlightCall[] self = new InFlightCall[1];
+    Flux<T> shared = call.get()
+      // Covers complete, error and cancel, i.e. also when the last subscriber cancels
+      .doFinally(signal -> inFlight.remove(inFlightKey, self[0]))
+      .replay()
+      .refCount(1);
+    self[0] = new InFlightCall(shared, deadline);
+    return self[0];
+  }
+
+  private Counter counter(Map<String, Counter> counters, String downstream, String result) {
+    return counters.computeIfAbsent(downstream, d -> Counter.builder("request.coalescing.calls")
+      .description("Downstream calls that were executed or collapsed into an in-flight call")
+      .tag("downstream", d)
+      .tag("result", result)
+      .register(meterRegistry));
+  }
+
+  private static final class InFlightCall {
+    private final Flux<?> flux;
+    private final Optional<Deadline> deadline;
+
+    InFlightCall(Flux<?> flux, Optional<Deadline> deadline) {
+      this.flux = flux;
+      this.deadline = deadline;
+    }
+
+    // A call without deadline outlasts every subscriber, a subscriber without deadline only joins such calls
+    boolean outlasts(Optional<Deadline> subscriberDeadline) {
+      if (deadline.isEmpty()) {
+        return true;
+      }
+      return subscriberDeadline.isPresent() && !deadline.get().isBefore(subscriberDeadline.get());
+    }
+  }
+
+  private static final class InFlightKey {
+    private final String downstream;
+    private final Object key;
+
+    InFlightKey(String downstream, Object key) {
+      this.downstream = downstream;
+      this.key = key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof InFlightKey)) {
+        return false;
+      }
+      InFlightKey other = (InFlightKey) o;
+      return downstream.equals(other.downstream) && Objects.equals(key, other.key);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * downstream.hashCode() + Objects.hashCode(key);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+package se.magnus.microservices.composite.product.services.hedging;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sends a second, hedged, request to a downstream service if the first one has not responded
+ * within a delay, and uses the response that arrives first. The other request is cancelled.
+ *
+ * The requests race on their first element, or completion, and the winning response is passed on as its
+ * elements arrive, i.e. hedged responses are streamed and not buffered.
+ *
+ * Hedging is configured per downstream service:
+ * - app.hedging.[downstream].enabled: defaults to false
+ * - app.hedging.[downstream].delay: defaults to the observed p95 latency of the downstream service
+ * - app.hedging.[downstream].max-share: the max share of requests that may be hedged, defaults to 0.1
+ */
+@Component
+public class RequestHedger {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RequestHedger.class);
+
+  private static final Duration MIN_DELAY = Duration.ofMillis(10);
+  private static final Duration INITIAL_DELAY = Duration.ofMillis(100);
+  private static final double P95 = 0.95;
+
+  private final Environment environment;
+  private final MeterRegistry meterRegistry;
+  private final Map<String, Downstream> downstreams = new ConcurrentHashMap<>();
+
+  @Autowired
+  public RequestHedger(Environment environment, MeterRegistry meterRegistry) {
+    this.environment = environment;
+    this.meterRegistry = meterRegistry;
+  }
+
+  public <T> Flux<T> flux(String downstream, Supplier<Flux<T>> call) {
+
+    Downstream d = downstreams.computeIfAbsent(downstream, this::createDownstream);
+    if (!d.enabled) {
+      return call.get();
+    }
+
+    return Flux.defer(() -> {
+      d.requests.increment();
+      d.addTokens();
+      long start = System.nanoTime();
+      AtomicBoolean responded = new AtomicBoolean(false);
+      Runnable recordLatency = () -> {
+        if (responded.compareAndSet(false, true)) {
+          d.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+      };
+      Flux<T> primary = call.get()
+        // The latency until the first element, or completion, is what the hedge delay is compared with
+        .doOnEach(signal -> recordLatency.run())
+        // Cancelled primaries are recorded as well, not to underestimate the latency when many requests are hedged
+        .doFinally(signal -> recordLatency.run());
+
+      Duration delay = d.hedgeDelay();
+      Flux<T> hedge = Mono.delay(delay)
+        .flatMapMany(tick -> {
+          if (!d.tryAcquireHedge()) {
+            return Flux.<T>never();
+          }
+          LOG.debug("No response from {} within {} ms, sends a hedged request", downstream, delay.toMillis());
+          d.hedges.increment();
+          // A hedged request that fails before its first element never wins, the first request is waited for instead
+          return call.get().switchOnFirst((first, response) -> {
+            if (first.isOnError()) {
+              return Flux.<T>never();
+            }
+            d.hedgeWins.increment();
+            return response;
+          });
+        });
+
+      // A failure of the first request wins as well, and cancels the pending hedge
+      return Flux.firstWithSignal(primary, hedge);
+    });
+  }
+
+  private Downstream createDownstream(String downstream) {
+    String prefix = "app.hedging." + downstream + ".";
+    boolean enabled = environment.getProperty(prefix + "enabled", Boolean.class, false);
+    String delayProperty = environment.getProperty(prefix + "delay");
+    Duration delay = delayProperty == null ? null : DurationStyle.detectAndParse(delayProperty);
+    double maxShare = environment.getProperty(prefix + "max-share", Double.class, 0.1);
+
+    LOG.info("Hedging of requests to {}, enabled: {}, delay: {}, max share: {}",
+      downstream, enabled, delay == null ? "p95" : delay, maxShare);
+
+    return new Downstream(downstream, enabled, delay, maxShare, meterRegistry);
+  }
+
+  private static final class Downstream {
+
+    // Allows short bursts of hedges on top of the max share
+    private static final double MAX_TOKENS = 10.0;
+
+    private final boolean enabled;
+    private final Duration fixedDelay;
+    private final double maxShare;
+    private final Timer latency;
+    private final Counter requests;
+    private final Counter hedges;
+    private final Counter hedgeWins;
+
+    private double tokens;
+
+    Downstream(String name, boolean enabled, Duration fixedDelay, double maxShare, MeterRegistry meterRegistry) {
+      this.enabled = enabled;
+      this.fixedDelay = fixedDelay;
+      this.maxShare = maxShare;
+      this.latency = Timer.builder("request.hedging.latency")
+        .description("Latency of the first request to the downstream service")
+        .tag("downstream", name)
+        .publishPercentiles(P95)
+        .register(meterRegistry);
+      this.requests = requestCounter(meterRegistry, name, "primary");
+      this.hedges = requestCounter(meterRegistry, name, "hedge");
+      this.hedgeWins = Counter.builder("request.hedging.wins")
+        .description("Hedged requests that responded before the first request")
+        .tag("downstream", name)
+        .register(meterRegistry);
+    }
+
+    Duration hedgeDelay() {
+      if (fixedDelay != null) {
+        return fixedDelay;
+      }
+
+      for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+        if (percentile.percentile() == P95 && percentile.value() > 0) {
+          Duration p95 = Duration.ofNanos((long) percentile.value(TimeUnit.NANOSECONDS));
+          return p95.compareTo(MIN_DELAY) < 0 ? MIN_DELAY : p95;
+        }
+      }
+      return INITIAL_DELAY;
+    }
+
+    /**
+     * Token bucket, every request adds maxShare tokens and every hedge takes one.
+     */
+    synchronized boolean tryAcquireHedge() {
+      if (tokens >= 1.0) {
+        tokens -= 1.0;
+        return true;
+      }
+      return false;
+    }
+
+    synchronized void addTokens() {
+      tokens = Math.min(MAX_TOKENS, tokens + maxShare);
+    }
+
+    private static Counter requestCounter(MeterRegistry meterRegistry, String name, String type) {
+      return Counter.builder("request.hedging.requests")
+        .description("Requests sent to the downstream service, first and hedged requests")
+        .tag("downstream", name)
+        .tag("type", type)
+        .register(meterRegistry);
+    }
+  }
+}
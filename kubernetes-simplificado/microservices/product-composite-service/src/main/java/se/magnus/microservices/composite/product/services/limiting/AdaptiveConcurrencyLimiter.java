@@ -0,0 +1,153 @@
+package se.magnus.microservices.composite.product.services.limiting;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Concurrency limiter whose limit follows the measured round trip times, in the style of the gradient limiters.
+ *
+ * Two averages of the round trip time are kept, a long term one that represents the latency without queueing and
+ * the latest sample. The limit is multiplied by their ratio, the gradient, clamped to [0.5, 1.0] after allowing for
+ * some tolerance, and a queue of the square root of the limit is added on top. I.e. the limit grows slowly while the
+ * round trip times are stable, and shrinks as soon as they increase because requests start to queue up.
+ * Calls that fail or time out are treated as a sign of overload and cut the limit by a tenth.
+ *
+ * The limit is not raised while less than half of it is in use, the round trip times say nothing about higher
+ * concurrency then.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+  private static final double TOLERANCE = 1.5;
+  private static final double BACKOFF_RATIO = 0.9;
+  // The long term round trip time is an exponential moving average over about this many samples
+  private static final int LONG_WINDOW = 600;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final LongSupplier nanoClock;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private volatile double limit;
+  private double longRttNanos;
+
+  public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing) {
+    this(initialLimit, minLimit, maxLimit, smoothing, System::nanoTime);
+  }
+
+  AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double smoothing, LongSupplier nanoClock) {
+    if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+      throw new IllegalArgumentException(
+        "Expected 1 <= minLimit <= initialLimit <= maxLimit, got " + minLimit + ", " + initialLimit + ", " + maxLimit);
+    }
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.nanoClock = nanoClock;
+    this.limit = initialLimit;
+  }
+
+  /**
+   * @return a permit that must be completed when the call is done, or empty if the limit is reached
+   */
+  public Optional<Permit> tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= getLimit()) {
+        return Optional.empty();
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return Optional.of(new Permit(nanoClock.getAsLong(), current + 1));
+      }
+    }
+  }
+
+  public int getLimit() {
+    return (int) limit;
+  }
+
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+  private synchronized void onSample(long rttNanos, int inFlightAtStart) {
+
+    if (longRttNanos == 0) {
+      longRttNanos = rttNanos;
+    } else {
+      longRttNanos += (rttNanos - longRttNanos) * 2.0 / (LONG_WINDOW + 1);
+    }
+
+    // Let the long term average recover faster after a period of long round trip times
+    if (longRttNanos / rttNanos > 2) {
+      longRttNanos *= 0.95;
+    }
+
+    double current = limit;
+    if (inFlightAtStart < current / 2) {
+      return;
+    }
+
+    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRttNanos / rttNanos));
+    double newLimit = current * gradient + Math.sqrt(current);
+    setLimit(current * (1 - smoothing) + newLimit * smoothing);
+  }
+
+  private synchronized void onDropped() {
+    setLimit(limit * BACKOFF_RATIO);
+  }
+
+  private void setLimit(double newLimit) {
+    limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+  }
+
+  /**
+   * A slot of the limit, held by one call. Only the first completion counts.
+   */
+  public class Permit {
+
+    private final long startNanos;
+    private final int inFlightAtStart;
+    private final AtomicBoolean done = new AtomicBoolean(false);
+
+    private Permit(long startNanos, int inFlightAtStart) {
+      this.startNanos = startNanos;
+      this.inFlightAtStart = inFlightAtStart;
+    }
+
+    /**
+     * The call succeeded, its round trip time is used to adjust the limit.
+     */
+    public void onSuccess() {
+      if (release()) {
+        onSample(Math.max(1, nanoClock.getAsLong() - startNanos), inFlightAtStart);
+      }
+    }
+
+    /**
+     * The call failed or timed out, the limit is decreased.
+     */
+    public void onDropped() {
+      if (release()) {
+        AdaptiveConcurrencyLimiter.this.onDropped();
+      }
+    }
+
+    /**
+     * The call was cancelled or failed for reasons unrelated to load, the limit is left as is.
+     */
+    public void onIgnore() {
+      release();
+    }
+
+    private boolean release() {
+      if (done.compareAndSet(false, true)) {
+        inFlight.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+package se.magnus.microservices.composite.product.services.limiting;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
+import reactor.core.publisher.Mono;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+
+/**
+ * Adaptive concurrency limiters, one per downstream service and one per inbound composite endpoint.
+ *
+ * Calls over the limit fail fast with a {@link ServiceUnavailableException}, i.e. 503, instead of queueing up in the
+ * connection pools and the publish-pool. The rejections are passed on to the caller, also for calls whose other
+ * errors give partial responses. Configured by:
+ * - app.concurrency-limit.enabled: defaults to true
+ * - app.concurrency-limit.initial-limit: defaults to 20
+ * - app.concurrency-limit.min-limit: defaults to 5
+ * - app.concurrency-limit.max-limit: defaults to 200
+ * - app.concurrency-limit.smoothing: how fast the limit follows the round trip times, defaults to 0.2
+ *
+ * The limits are exported as concurrency.limit, the calls in flight as concurrency.inflight and the rejected calls as
+ * concurrency.rejected, all with the name of the limiter as the name tag.
+ */
+@Component
+public class ConcurrencyLimiters {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ConcurrencyLimiters.class);
+
+  // Prefix of the names of the limiters of the inbound composite endpoints, see InboundConcurrencyLimitFilter
+  public static final String INBOUND = "inbound";
+
+  private final boolean enabled;
+  private final int initialLimit;
+  private final int minLimit;
+  private final int maxLimit;
+  private final double smoothing;
+  private final MeterRegistry meterRegistry;
+
+  private final Map<String, AdaptiveConcurrencyLimiter> limiters = new ConcurrentHashMap<>();
+  private final Map<String, Counter> rejected = new ConcurrentHashMap<>();
+
+  @Autowired
+  public ConcurrencyLimiters(
+    @Value("${app.concurrency-limit.enabled:true}") boolean enabled,
+    @Value("${app.concurrency-limit.initial-limit:20}") int initialLimit,
+    @Value("${app.concurrency-limit.min-limit:5}") int minLimit,
+    @Value("${app.concurrency-limit.max-limit:200}") int maxLimit,
+    @Value("${app.concurrency-limit.smoothing:0.2}") double smoothing,
+    MeterRegistry meterRegistry) {
+
+    this.enabled = enabled;
+    this.initialLimit = initialLimit;
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.smoothing = smoothing;
+    this.meterRegistry = meterRegistry;
+
+    LOG.info("Adaptive concurrency limits enabled: {}, initial limit: {}, min limit: {}, max limit: {}, smoothing: {}",
+      enabled, initialLimit, minLimit, maxLimit, smoothing);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return a permit of the named limiter, or empty if its limit is reached
+   */
+  public Optional<AdaptiveConcurrencyLimiter.Permit> tryAcquire(String name) {
+    Optional<AdaptiveConcurrencyLimiter.Permit> permit = limiter(name).tryAcquire();
+    if (permit.isEmpty()) {
+      LOG.debug("Concurrency limit of {} reached", name);
+      rejected.computeIfAbsent(name, n -> Counter.builder("concurrency.rejected").tag("name", n).register(meterRegistry)).increment();
+    }
+    return permit;
+  }
+
+  /**
+   * Limits the calls of a WebClient. Responses with a 5xx status and errors decrease the limit.
+   */
+  public ExchangeFilterFunction exchangeFilter(String name) {
+
+    if (!enabled) {
+      return (request, next) -> next.exchange(request);
+    }
+
+    return (request, next) -> Mono.defer(() -> {
+      Optional<AdaptiveConcurrencyLimiter.Permit> permit = tryAcquire(name);
+      if (permit.isEmpty()) {
+        return Mono.error(new ServiceUnavailableException("Concurrency limit reached for calls to " + name));
+      }
+      return next.exchange(request)
+        .doOnNext(response -> {
+          if (response.statusCode().is5xxServerError()) {
+            permit.get().onDropped();
+          } else {
+            permit.get().onSuccess();
+          }
+        })
+        .doOnError(ex -> permit.get().onDropped())
+        .doFinally(signal -> permit.get().onIgnore());
+    });
+  }
+
+  private AdaptiveConcurrencyLimiter limiter(String name) {
+    return limiters.computeIfAbsent(name, n -> {
+      AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(initialLimit, minLimit, maxLimit, smoothing);
+      Gauge.builder("concurrency.limit", limiter, AdaptiveConcurrencyLimiter::getLimit).tag("name", n).register(meterRegistry);
+      Gauge.builder("concurrency.inflight", limiter, AdaptiveConcurrencyLimiter::getInFlight).tag("name", n).register(meterRegistry);
+      return limiter;
+    });
+  }
+}
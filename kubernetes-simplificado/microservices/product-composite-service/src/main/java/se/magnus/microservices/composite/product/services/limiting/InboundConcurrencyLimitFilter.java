@@ -0,0 +1,91 @@
+package se.magnus.microservices.composite.product.services.limiting;
+
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Limits the concurrent requests to the composite endpoints, requests over the limit are answered with 503 at once.
+ *
+ * Each endpoint has its own limiter, keyed by method and path template, since their round trip times differ a lot,
+ * e.g. a multi-get takes much longer than a GET of a single product and would otherwise lower the limit of both.
+ * Streaming requests are not limited, their round trip times depend on the size of the stream and not on the load.
+ * Runs before the security filters, so that rejected requests cost as little as possible.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class InboundConcurrencyLimitFilter implements WebFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(InboundConcurrencyLimitFilter.class);
+
+  private static final String PRODUCT_ID_SEGMENT = "{productId}";
+
+  // Requests to other paths share one limiter, so that the number of limiters does not depend on the requests
+  private static final Set<String> ROUTES = Set.of(
+    "POST /product-composite",
+    "GET /product-composite",
+    "GET /product-composite/" + PRODUCT_ID_SEGMENT,
+    "DELETE /product-composite/" + PRODUCT_ID_SEGMENT);
+  private static final String OTHER_ROUTES = "other";
+
+  private final ConcurrencyLimiters limiters;
+
+  @Autowired
+  public InboundConcurrencyLimitFilter(ConcurrencyLimiters limiters) {
+    this.limiters = limiters;
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+    String path = exchange.getRequest().getPath().pathWithinApplication().value();
+    if (!limiters.isEnabled() || !path.startsWith("/product-composite") || path.endsWith("/stream")) {
+      return chain.filter(exchange);
+    }
+
+    Optional<AdaptiveConcurrencyLimiter.Permit> permit = limiters.tryAcquire(limiterName(exchange.getRequest().getMethod(), path));
+    if (permit.isEmpty()) {
+      LOG.debug("Rejects {} {}, the concurrency limit is reached", exchange.getRequest().getMethod(), path);
+      exchange.getResponse().setStatusCode(SERVICE_UNAVAILABLE);
+      return exchange.getResponse().setComplete();
+    }
+
+    return chain.filter(exchange)
+      .doOnSuccess(v -> {
+        HttpStatusCode status = exchange.getResponse().getStatusCode();
+        if (status != null && status.is5xxServerError()) {
+          permit.get().onDropped();
+        } else {
+          permit.get().onSuccess();
+        }
+      })
+      .doOnError(ex -> permit.get().onDropped())
+      .doFinally(signal -> permit.get().onIgnore());
+  }
+
+  /**
+   * @return the name of the limiter of the endpoint, e.g. "inbound GET /product-composite/{productId}"
+   */
+  static String limiterName(HttpMethod method, String path) {
+    String template = Arrays.stream(path.split("/", -1))
+      .map(segment -> !segment.isEmpty() && segment.chars().allMatch(Character::isDigit) ? PRODUCT_ID_SEGMENT : segment)
+      .collect(Collectors.joining("/"));
+    String route = method + " " + template;
+    return ConcurrencyLimiters.INBOUND + " " + (ROUTES.contains(route) ? route : OTHER_ROUTES);
+  }
+}
@@ -0,0 +1,167 @@
+package se.magnus.microservices.composite.product.services.publishing;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
+import se.magnus.api.event.Event;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+
+/**
+ * Publishes events to a binding in batches.
+ *
+ * Each batch is sent by one task on the publishEventScheduler, and the next batch is not scheduled
+ * until the previous one is sent. A large composite product is thereby published by a few tasks
+ * one after the other, instead of one task per event that may overflow the task queue of the scheduler.
+ * Across concurrent requests, at most app.event-publishing.max-scheduled-batches batches are scheduled at
+ * the same time, the others wait for their turn, see {@link #scheduleBatch}.
+ *
+ * Configured by:
+ * - app.event-publishing.batch-size: defaults to 50
+ * - app.event-publishing.max-scheduled-batches: defaults to 50, must not be more than the threads and task queue of
+ *   the publishEventScheduler, app.threadPoolSize plus app.taskQueueSize
+ * - app.event-publishing.max-batch-wait: max time a batch waits for its turn, defaults to 5s
+ *
+ * If publisher confirms are enabled, see {@link PublisherConfirms}, the returned Mono completes when
+ * the broker has confirmed all events. The batches are sent without waiting for the confirms of
+ * the previous ones, i.e. many events can be in flight at the same time.
+ */
+@Component
+public class EventPublisher {
+
+  private static final Logger LOG = LoggerFactory.getLogger(EventPublisher.class);
+
+  private static final Duration BATCH_POLL_INTERVAL = Duration.ofMillis(10);
+
+  // Signals that all batch permits are taken, without a stack trace since it is only used to retry
+  private static final RuntimeException NO_BATCH_PERMIT = new NoBatchPermitException();
+
+  private final Scheduler publishEventScheduler;
+  private final StreamBridge streamBridge;
+  private final MeterRegistry meterRegistry;
+  private final PublisherConfirms publisherConfirms;
+  private final int batchSize;
+  private final Duration maxBatchWait;
+  private final Semaphore batchPermits;
+  private final Map<String, DistributionSummary> batchSizes = new ConcurrentHashMap<>();
+  private final Map<String, Timer> batchLatencies = new ConcurrentHashMap<>();
+
+  @Autowired
+  public EventPublisher(
+    @Qualifier("publishEventScheduler") Scheduler publishEventScheduler,
+    StreamBridge streamBridge,
+    MeterRegistry meterRegistry,
+    PublisherConfirms publisherConfirms,
+    @Value("${app.event-publishing.batch-size:50}") int batchSize,
+    @Value("${app.event-publishing.max-scheduled-batches:50}") int maxScheduledBatches,
+    @Value("${app.event-publishing.max-batch-wait:5s}") Duration maxBatchWait) {
+
+    this.publishEventScheduler = publishEventScheduler;
+    this.streamBridge = streamBridge;
+    this.meterRegistry = meterRegistry;
+    this.publisherConfirms = publisherConfirms;
+    this.batchSize = batchSize;
+    this.maxBatchWait = maxBatchWait;
+    this.batchPermits = new Semaphore(maxScheduledBatches);
+  }
+
+  public Mono<Void> publish(String bindingName, Event event) {
+    return publish(bindingName, List.of(event));
+  }
+
+  public Mono<Void> publish(String bindingName, List<Event> events) {
+    return Flux.fromIterable(events)
+      .buffer(batchSize)
+      .concatMap(batch -> scheduleBatch(bindingName, batch))
+      .flatMapIterable(Function.identity())
+      .collectList()
+      .flatMap(confirms -> Mono.fromFuture(CompletableFuture.allOf(confirms.toArray(new CompletableFuture[0]))))
+      .then();
+  }
+
+  /**
+   * Sends the batch on the publishEventScheduler once one of the batch permits, shared by all requests, is free.
+   * The permit is held until the batch is sent, the batch is failed with a ServiceUnavailableException if no permit
+   * is free within the max batch wait.
+   */
+  private Mono<List<CompletableFuture<Void>>> scheduleBatch(String bindingName, List<Event> batch) {
+    return Mono.using(
+        this::acquireBatchPermit,
+        permit -> Mono.fromCallable(() -> sendBatch(bindingName, batch)).subscribeOn(publishEventScheduler),
+        permit -> batchPermits.release())
+      .retryWhen(Retry.fixedDelay(Math.max(1, maxBatchWait.toMillis() / BATCH_POLL_INTERVAL.toMillis()), BATCH_POLL_INTERVAL)
+        .filter(error -> error == NO_BATCH_PERMIT)
+        .onRetryExhaustedThrow((spec, signal) -> new ServiceUnavailableException(
+          "No batch of events could be scheduled for " + bindingName + " within " + maxBatchWait.toMillis() + " ms")));
+  }
+
+  private boolean acquireBatchPermit() {
+    if (!batchPermits.tryAcquire()) {
+      throw NO_BATCH_PERMIT;
+    }
+    return true;
+  }
+
+  private List<CompletableFuture<Void>> sendBatch(String bindingName, List<Event> batch) {
+    LOG.debug("Sending {} messages to {}", batch.size(), bindingName);
+
+    batchSizes.computeIfAbsent(bindingName, b -> DistributionSummary.builder("event.publishing.batch.size")
+        .description("Number of events sent to a binding in one batch")
+        .tag("binding", b)
+        .register(meterRegistry))
+      .record(batch.size());
+
+    List<CompletableFuture<Void>> confirms = new ArrayList<>();
+    batchLatencies.computeIfAbsent(bindingName, b -> Timer.builder("event.publishing.latency")
+        .description("Time to send a batch of events to a binding")
+        .tag("binding", b)
+        .register(meterRegistry))
+      .record(() -> batch.forEach(event -> send(bindingName, event, confirms)));
+    return confirms;
+  }
+
+  private void send(String bindingName, Event event, List<CompletableFuture<Void>> confirms) {
+    MessageBuilder<Event> builder = MessageBuilder.withPayload(event)
+      .setHeader("partitionKey", event.getKey());
+
+    CompletableFuture<Void> confirm = publisherConfirms.isEnabled() ? publisherConfirms.prepare(builder) : null;
+    if (confirm != null) {
+      confirms.add(confirm);
+    }
+
+    try {
+      streamBridge.send(bindingName, builder.build());
+    } catch (RuntimeException e) {
+      // Nothing will confirm a message that was not sent
+      if (confirm != null) {
+        confirm.completeExceptionally(e);
+      }
+      throw e;
+    }
+  }
+
+  private static final class NoBatchPermitException extends RuntimeException {
+    NoBatchPermitException() {
+      super("No batch permit", null, false, false);
+    }
+  }
+}
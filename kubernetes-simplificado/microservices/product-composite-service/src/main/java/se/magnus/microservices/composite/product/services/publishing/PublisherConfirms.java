@@ -0,0 +1,168 @@
+package se.magnus.microservices.composite.product.services.publishing;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.core.env.Environment;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageDeliveryException;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+
+/**
+ * Tracks the broker confirms of published messages, RabbitMQ publisher confirms or Kafka producer acks.
+ *
+ * Configured by:
+ * - app.event-publishing.confirms.enabled: defaults to false
+ * - app.event-publishing.confirms.max-outstanding: max number of unconfirmed messages, defaults to 1000
+ * - app.event-publishing.confirms.timeout: defaults to 5s
+ *
+ * For RabbitMQ, spring.rabbitmq.publisher-confirm-type must be correlated and the bindings must set
+ * producer.useConfirmHeader. For Kafka, the bindings must set producer.recordMetadataChannel to
+ * {@link PublisherConfirmsConfig#KAFKA_CONFIRMS_CHANNEL}, and producer.errorChannelEnabled for failed
+ * sends to be reported on the error channel instead of as timeouts. See the publisher_confirms profile.
+ */
+@Component
+public class PublisherConfirms {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PublisherConfirms.class);
+
+  public static final String CORRELATION_ID_HEADER = "publishCorrelationId";
+
+  private final boolean enabled;
+  private final boolean kafka;
+  private final Duration timeout;
+  private final int maxOutstanding;
+  private final Semaphore outstanding;
+  private final Map<String, CompletableFuture<Void>> pendingKafkaConfirms = new ConcurrentHashMap<>();
+  private final Timer ackLatency;
+  private final Timer failureLatency;
+
+  @Autowired
+  public PublisherConfirms(Environment environment, MeterRegistry meterRegistry) {
+    String prefix = "app.event-publishing.confirms.";
+    this.enabled = environment.getProperty(prefix + "enabled", Boolean.class, false);
+    this.kafka = "kafka".equals(environment.getProperty("spring.cloud.stream.defaultBinder", "rabbit"));
+    this.timeout = DurationStyle.detectAndParse(environment.getProperty(prefix + "timeout", "5s"));
+    this.maxOutstanding = environment.getProperty(prefix + "max-outstanding", Integer.class, 1000);
+    this.outstanding = new Semaphore(maxOutstanding);
+
+    LOG.info("Publisher confirms enabled: {}, binder: {}, max outstanding: {}, timeout: {}",
+      enabled, kafka ? "kafka" : "rabbit", maxOutstanding, timeout);
+
+    this.ackLatency = confirmTimer(meterRegistry, "ack");
+    this.failureLatency = confirmTimer(meterRegistry, "failure");
+    meterRegistry.gauge("event.publishing.outstanding", outstanding, s -> maxOutstanding - s.availablePermits());
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Adds the headers that correlate the message with its confirm. Waits, at most for the confirm timeout,
+   * while the max number of messages are waiting for their confirms.
+   *
+   * @return a future that completes when the broker has confirmed the message. Completing it exceptionally, e.g. when
+   *     the message could not be sent, fails the confirm at once and releases its place among the outstanding messages
+   * @throws ServiceUnavailableException if the max number of messages are still waiting after the timeout
+   */
+  public CompletableFuture<Void> prepare(MessageBuilder<?> builder) {
+
+    acquire();
+    long start = System.nanoTime();
+
+    String correlationId = UUID.randomUUID().toString();
+    CompletableFuture<Void> confirm;
+
+    if (kafka) {
+      confirm = new CompletableFuture<>();
+      pendingKafkaConfirms.put(correlationId, confirm);
+      builder.setHeader(CORRELATION_ID_HEADER, correlationId);
+
+    } else {
+      CorrelationData correlationData = new CorrelationData(correlationId);
+      builder.setHeader(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION, correlationData);
+      confirm = correlationData.getFuture().thenAccept(result -> {
+        if (!result.isAck()) {
+          throw new MessageDeliveryException("Message not confirmed by the broker: " + result.getReason());
+        }
+      });
+    }
+
+    CompletableFuture<Void> result = confirm
+      .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+      .whenComplete((ignored, error) -> {
+        outstanding.release();
+        pendingKafkaConfirms.remove(correlationId);
+        (error == null ? ackLatency : failureLatency).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (error != null) {
+          LOG.warn("Publishing of message {} failed: {}", correlationId, error.toString());
+        }
+      });
+
+    // A failure set on the returned future is passed back to the confirm, to release it without waiting for the timeout
+    result.whenComplete((ignored, error) -> {
+      if (error != null) {
+        confirm.completeExceptionally(error);
+      }
+    });
+    return result;
+  }
+
+  private void acquire() {
+    try {
+      if (!outstanding.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        throw new ServiceUnavailableException(
+          "Still " + maxOutstanding + " messages waiting for their publisher confirms after " + timeout.toMillis() + " ms");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ServiceUnavailableException("Interrupted while waiting for publisher confirms", e);
+    }
+  }
+
+  public void onKafkaRecordMetadata(Message<?> message) {
+    String correlationId = message.getHeaders().get(CORRELATION_ID_HEADER, String.class);
+    CompletableFuture<Void> confirm = correlationId == null ? null : pendingKafkaConfirms.get(correlationId);
+    if (confirm != null) {
+      confirm.complete(null);
+    }
+  }
+
+  /**
+   * Fails the confirm of a message that the Kafka binder could not send, reported on the error channel.
+   * Errors of other messages are ignored.
+   */
+  public void onKafkaSendFailure(ErrorMessage errorMessage) {
+    Throwable error = errorMessage.getPayload();
+    Message<?> failed = error instanceof MessagingException ? ((MessagingException) error).getFailedMessage() : errorMessage.getOriginalMessage();
+    String correlationId = failed == null ? null : failed.getHeaders().get(CORRELATION_ID_HEADER, String.class);
+    CompletableFuture<Void> confirm = correlationId == null ? null : pendingKafkaConfirms.get(correlationId);
+    if (confirm != null) {
+      confirm.completeExceptionally(new MessageDeliveryException(failed, "Message not sent to Kafka", error));
+    }
+  }
+
+  private Timer confirmTimer(MeterRegistry meterRegistry, String result) {
+    return Timer.builder("event.publishing.confirm.latency")
+      .description("Time from publishing of a message until it is confirmed by the broker")
+      .tag("result", result)
+      .register(meterRegistry);
+  }
+}
@@ -0,0 +1,40 @@
+package se.magnus.microservices.composite.product.services.publishing;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.integration.channel.DirectChannel;
+import org.springframework.integration.context.IntegrationContextUtils;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ErrorMessage;
+
+@Configuration
+public class PublisherConfirmsConfig {
+
+  public static final String KAFKA_CONFIRMS_CHANNEL = "kafkaPublisherConfirms";
+
+  /**
+   * The Kafka binder sends the successfully published messages to this channel, see PublisherConfirms.
+   */
+  @Bean(KAFKA_CONFIRMS_CHANNEL)
+  public MessageChannel kafkaPublisherConfirms(PublisherConfirms publisherConfirms) {
+    DirectChannel channel = new DirectChannel();
+    channel.subscribe(publisherConfirms::onKafkaRecordMetadata);
+    return channel;
+  }
+
+  /**
+   * The binders send the messages that could not be published to the error channel of the binding, that is bridged
+   * to the global error channel, see PublisherConfirms.
+   */
+  @Bean
+  @ServiceActivator(inputChannel = IntegrationContextUtils.ERROR_CHANNEL_BEAN_NAME)
+  public MessageHandler kafkaPublisherErrors(PublisherConfirms publisherConfirms) {
+    return message -> {
+      if (message instanceof ErrorMessage) {
+        publisherConfirms.onKafkaSendFailure((ErrorMessage) message);
+      }
+    };
+  }
+}
@@ -0,0 +1,289 @@
+package se.magnus.microservices.composite.product.services.readmodel;
+
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Clock;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.UnaryOperator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.event.Event;
+
+/**
+ * In-process read model of composite products, fed by the events on the products, recommendations and reviews topics.
+ *
+ * Every instance keeps its own view of each product, so a GET of a composite product can be served without calling
+ * the core services. Products without a complete view, e.g. products created before the instance started, are
+ * fetched from the core services as before. So are products whose view is not verified yet, i.e. after every event
+ * until the aggregate of the core services has been found to be the same, see {@link #verify(int, ProductView)}.
+ * A view that differs from the core services, e.g. since they rejected one of its events, is thereby never served.
+ *
+ * The number of views is bounded by app.read-model.maximum-size. The products of evicted views are remembered, and
+ * views built up again from their later events are partial, i.e. not served, since the earlier events are gone.
+ * They are served again once the product is deleted and recreated, or after a rebuild.
+ *
+ * In rebuild mode the views are cleared and not served until the replay of the topics has reached the end offsets
+ * they had when the rebuild started, see {@link #replayUntil(Map)}. Combined with consuming the topics from the
+ * beginning, see the read_model_rebuild profile, the views are rebuilt from scratch.
+ */
+@Component
+public class ProductReadModel {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ProductReadModel.class);
+
+  private final boolean enabled;
+  private final Clock clock;
+
+  private final Map<Integer, ProductView> views;
+  // Products whose views were evicted, ids are small compared to views so more of them are remembered
+  private final Cache<Integer, Boolean> evicted;
+  private final Counter evictions;
+
+  private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+  // The offset of the last record per topic partition that the replay of a rebuild still has to reach, null if unknown
+  private volatile Map<String, Long> replayEnd;
+  private final AtomicLong lagMillis = new AtomicLong();
+
+  @Autowired
+  public ProductReadModel(
+    @Value("${app.read-model.enabled:false}") boolean enabled,
+    @Value("${app.read-model.rebuild:false}") boolean rebuild,
+    @Value("${app.read-model.maximum-size:100000}") long maximumSize,
+    MeterRegistry meterRegistry) {
+
+    this(enabled, rebuild, maximumSize, meterRegistry, Clock.systemUTC());
+  }
+
+  ProductReadModel(boolean enabled, boolean rebuild, long maximumSize, MeterRegistry meterRegistry, Clock clock) {
+    this.enabled = enabled;
+    this.clock = clock;
+
+    // Evict on the calling thread and remember the product atomically with the eviction, before its next event is applied
+    this.views = Caffeine.newBuilder()
+      .maximumSize(maximumSize)
+      .executor(Runnable::run)
+      .evictionListener((Integer productId, ProductView view, RemovalCause cause) -> onEvicted(productId))
+      .<Integer, ProductView>build()
+      .asMap();
+    this.evicted = Caffeine.newBuilder().maximumSize(4 * maximumSize).build();
+    this.evictions = Counter.builder("read.model.evictions")
+      .description("The number of product views evicted from the read model when it was full")
+      .register(meterRegistry);
+
+    Gauge.builder("read.model.lag", lagMillis, lag -> lag.get() / 1000.0)
+      .baseUnit("seconds")
+      .description("The time between the creation of the last applied event and when it was applied to the read model")
+      .register(meterRegistry);
+    Gauge.builder("read.model.size", views, Map::size)
+      .description("The number of product views in the read model")
+      .register(meterRegistry);
+
+    if (rebuild) {
+      rebuild();
+    }
+
+    LOG.info("Read model enabled: {}, rebuild: {}, maximum size: {}", enabled, rebuild, maximumSize);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return the complete and verified view of the product, or empty if there is none or the read model is rebuilding
+   */
+  public Optional<ProductView> get(int productId) {
+    return find(productId).filter(ProductView::isVerified);
+  }
+
+  /**
+   * @return the complete view of the product that is not verified yet, to compare with the aggregate of the core services
+   */
+  public Optional<ProductView> getUnverified(int productId) {
+    return find(productId).filter(view -> !view.isVerified());
+  }
+
+  /**
+   * Marks the view as verified, i.e. the same as the aggregate of the core services, unless an event has changed it since.
+   *
+   * @param view The view as returned by {@link #getUnverified(int)}
+   * @return true if the view was marked as verified
+   */
+  public boolean verify(int productId, ProductView view) {
+    boolean[] verified = new boolean[1];
+    views.computeIfPresent(productId, (id, current) -> {
+      if (current != view) {
+        return current;
+      }
+      verified[0] = true;
+      return current.verified();
+    });
+
+    LOG.debug("View of productId: {} verified: {}", productId, verified[0]);
+    return verified[0];
+  }
+
+  private Optional<ProductView> find(int productId) {
+
+    if (!enabled || isRebuilding()) {
+      return Optional.empty();
+    }
+
+    ProductView view = views.get(productId);
+    return view != null && view.isComplete() && !view.isPartial() ? Optional.of(view) : Optional.empty();
+  }
+
+  /**
+   * Clears all views, they are not served until the replay has reached the end offsets given to
+   * {@link #replayUntil(Map)}.
+   */
+  public void rebuild() {
+    LOG.info("Rebuilds the read model from scratch, drops {} views", views.size());
+    rebuilding.set(true);
+    replayEnd = null;
+    views.clear();
+    evicted.invalidateAll();
+  }
+
+  /**
+   * Sets the end of the replay of a rebuild.
+   *
+   * @param endOffsets The offset of the next record per topic partition, i.e. their high-water marks, when the
+   *                   rebuild started, keyed by {@link #partition(String, int)}
+   */
+  public void replayUntil(Map<String, Long> endOffsets) {
+
+    Map<String, Long> remaining = new ConcurrentHashMap<>();
+    endOffsets.forEach((partition, endOffset) -> {
+      if (endOffset > 0) {
+        remaining.put(partition, endOffset - 1);
+      }
+    });
+
+    LOG.info("Replays {} topic partitions until: {}", remaining.size(), remaining);
+    replayEnd = remaining;
+    if (remaining.isEmpty()) {
+      caughtUp();
+    }
+  }
+
+  public boolean isRebuilding() {
+    return rebuilding.get();
+  }
+
+  public static String partition(String topic, int partition) {
+    return topic + "-" + partition;
+  }
+
+  public void applyProductEvent(Event<Integer, Product> event) {
+    applyProductEvent(event, null, -1);
+  }
+
+  public void applyRecommendationEvent(Event<Integer, Recommendation> event) {
+    applyRecommendationEvent(event, null, -1);
+  }
+
+  public void applyReviewEvent(Event<Integer, Review> event) {
+    applyReviewEvent(event, null, -1);
+  }
+
+  /**
+   * @param partition The topic partition the event was received from, see {@link #partition(String, int)}, null if unknown
+   * @param offset The offset of the event in the topic partition
+   */
+  public void applyProductEvent(Event<Integer, Product> event, String partition, long offset) {
+    apply(event, partition, offset,
+      view -> event.getEventType() == CREATE ? view.withProduct(event.getData()) : view.withProduct(null));
+  }
+
+  public void applyRecommendationEvent(Event<Integer, Recommendation> event, String partition, long offset) {
+    apply(event, partition, offset,
+      view -> event.getEventType() == CREATE ? view.withRecommendation(event.getData()) : view.withoutRecommendations());
+  }
+
+  public void applyReviewEvent(Event<Integer, Review> event, String partition, long offset) {
+    apply(event, partition, offset,
+      view -> event.getEventType() == CREATE ? view.withReview(event.getData()) : view.withoutReviews());
+  }
+
+  private void apply(Event<Integer, ?> event, String partition, long offset, UnaryOperator<ProductView> update) {
+
+    if (!enabled) {
+      return;
+    }
+
+    applyToView(event, update);
+    replayed(partition, offset);
+  }
+
+  private void applyToView(Event<Integer, ?> event, UnaryOperator<ProductView> update) {
+
+    if (event.getKey() == null || event.getEventType() != CREATE && event.getEventType() != DELETE
+      || event.getEventType() == CREATE && event.getData() == null) {
+      LOG.warn("Ignores a {} event with key {}, created at {}", event.getEventType(), event.getKey(), event.getEventCreatedAt());
+      return;
+    }
+
+    LOG.debug("Applies a {} event to the view of productId: {}", event.getEventType(), event.getKey());
+    views.compute(event.getKey(), (productId, view) -> {
+      // The earlier events of an evicted view are gone, the view is partial until it is emptied by the delete events
+      ProductView start = view != null ? view : evicted.getIfPresent(productId) != null ? ProductView.PARTIAL : ProductView.EMPTY;
+      ProductView updated = update.apply(start);
+      if (updated.isEmpty()) {
+        evicted.invalidate(productId);
+        return null;
+      }
+      return updated;
+    });
+
+    if (event.getEventCreatedAt() != null) {
+      lagMillis.set(Math.max(0, clock.millis() - event.getEventCreatedAt().toInstant().toEpochMilli()));
+    }
+  }
+
+  private void replayed(String partition, long offset) {
+
+    Map<String, Long> remaining = replayEnd;
+    if (!rebuilding.get() || remaining == null || partition == null) {
+      return;
+    }
+
+    Long endOffset = remaining.get(partition);
+    if (endOffset != null && offset >= endOffset) {
+      LOG.info("Replay of {} has reached offset {}", partition, endOffset);
+      remaining.remove(partition, endOffset);
+      if (remaining.isEmpty()) {
+        caughtUp();
+      }
+    }
+  }
+
+  private void onEvicted(int productId) {
+    LOG.debug("Evicts the view of productId: {}", productId);
+    evicted.put(productId, Boolean.TRUE);
+    evictions.increment();
+  }
+
+  private void caughtUp() {
+    if (rebuilding.compareAndSet(true, false)) {
+      LOG.info("Read model has caught up with the events, serves {} views", views.size());
+    }
+  }
+}
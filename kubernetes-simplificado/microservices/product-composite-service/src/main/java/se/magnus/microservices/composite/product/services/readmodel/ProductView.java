@@ -0,0 +1,106 @@
+package se.magnus.microservices.composite.product.services.readmodel;
+
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+
+/**
+ * Immutable, precomputed view of a product with its recommendations and reviews, kept by the {@link ProductReadModel}.
+ *
+ * Events from the three topics can arrive in any order, so a view can hold recommendations and
+ * reviews before the product itself has arrived. Such a view is not complete and is not served.
+ * Neither is a partial view, built up again after the view of the product was evicted.
+ *
+ * A complete view may still differ from the core services, e.g. if the product arrived before its recommendations and
+ * reviews, or if the core services rejected one of its events. It is only served once it has been verified against
+ * the core services, and every later event gives a new view that is not verified.
+ */
+public final class ProductView {
+
+  static final ProductView EMPTY = new ProductView(null, new TreeMap<>(), new TreeMap<>(), false, false);
+  static final ProductView PARTIAL = new ProductView(null, new TreeMap<>(), new TreeMap<>(), true, false);
+
+  private final Product product;
+  private final SortedMap<Integer, Recommendation> recommendations;
+  private final SortedMap<Integer, Review> reviews;
+  private final boolean partial;
+  private final boolean verified;
+
+  private ProductView(
+    Product product, SortedMap<Integer, Recommendation> recommendations, SortedMap<Integer, Review> reviews,
+    boolean partial, boolean verified) {
+    this.product = product;
+    this.recommendations = recommendations;
+    this.reviews = reviews;
+    this.partial = partial;
+    this.verified = verified;
+  }
+
+  public Product getProduct() {
+    return product;
+  }
+
+  public List<Recommendation> getRecommendations() {
+    return List.copyOf(recommendations.values());
+  }
+
+  public List<Review> getReviews() {
+    return List.copyOf(reviews.values());
+  }
+
+  /**
+   * @return true if the product has arrived, i.e. the view can be served
+   */
+  public boolean isComplete() {
+    return product != null;
+  }
+
+  /**
+   * @return true if earlier events of the product were lost when its view was evicted
+   */
+  public boolean isPartial() {
+    return partial;
+  }
+
+  /**
+   * @return true if the view was found to be the same as the aggregate of the core services
+   */
+  public boolean isVerified() {
+    return verified;
+  }
+
+  boolean isEmpty() {
+    return product == null && recommendations.isEmpty() && reviews.isEmpty();
+  }
+
+  ProductView verified() {
+    return new ProductView(product, recommendations, reviews, partial, true);
+  }
+
+  ProductView withProduct(Product product) {
+    return new ProductView(product, recommendations, reviews, partial, false);
+  }
+
+  ProductView withRecommendation(Recommendation recommendation) {
+    SortedMap<Integer, Recommendation> copy = new TreeMap<>(recommendations);
+    copy.put(recommendation.getRecommendationId(), recommendation);
+    return new ProductView(product, copy, reviews, partial, false);
+  }
+
+  ProductView withoutRecommendations() {
+    return new ProductView(product, new TreeMap<>(), reviews, partial, false);
+  }
+
+  ProductView withReview(Review review) {
+    SortedMap<Integer, Review> copy = new TreeMap<>(reviews);
+    copy.put(review.getReviewId(), review);
+    return new ProductView(product, recommendations, copy, partial, false);
+  }
+
+  ProductView withoutReviews() {
+    return new ProductView(product, recommendations, new TreeMap<>(), partial, false);
+  }
+}
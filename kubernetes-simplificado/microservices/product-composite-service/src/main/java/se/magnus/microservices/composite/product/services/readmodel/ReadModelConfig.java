@@ -0,0 +1,125 @@
+package se.magnus.microservices.composite.product.services.readmodel;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.OffsetSpec;
+import org.apache.kafka.clients.admin.TopicDescription;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.kafka.support.KafkaHeaders;
+import org.springframework.messaging.Message;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.event.Event;
+
+/**
+ * One consumer per topic, so that the events are deserialized to the type of their topic. Only created, and bound,
+ * if the read model is enabled.
+ *
+ * On a rebuild, the end offsets of the topics are fetched from Kafka once the application is ready and the consumers
+ * are bound, they mark the end of the replay. With the RabbitMQ binder there is nothing to replay.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.read-model.enabled", havingValue = "true")
+public class ReadModelConfig {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ReadModelConfig.class);
+
+  private final ProductReadModel readModel;
+  private final Environment environment;
+  private final ObjectProvider<KafkaProperties> kafkaProperties;
+
+  @Autowired
+  public ReadModelConfig(ProductReadModel readModel, Environment environment, ObjectProvider<KafkaProperties> kafkaProperties) {
+    this.readModel = readModel;
+    this.environment = environment;
+    this.kafkaProperties = kafkaProperties;
+  }
+
+  @Bean
+  public Consumer<Message<Event<Integer, Product>>> readModelProducts() {
+    return message -> readModel.applyProductEvent(message.getPayload(), partition(message), offset(message));
+  }
+
+  @Bean
+  public Consumer<Message<Event<Integer, Recommendation>>> readModelRecommendations() {
+    return message -> readModel.applyRecommendationEvent(message.getPayload(), partition(message), offset(message));
+  }
+
+  @Bean
+  public Consumer<Message<Event<Integer, Review>>> readModelReviews() {
+    return message -> readModel.applyReviewEvent(message.getPayload(), partition(message), offset(message));
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void fetchReplayEnd() {
+
+    if (!readModel.isRebuilding()) {
+      return;
+    }
+
+    String binder = environment.getProperty("spring.cloud.stream.defaultBinder", "rabbit");
+    if (!"kafka".equals(binder)) {
+      LOG.warn("The read model can only replay the topics with the Kafka binder, the {} binder has nothing to replay", binder);
+      readModel.replayUntil(Map.of());
+      return;
+    }
+
+    Map<String, Object> adminProperties = kafkaProperties.getObject().buildAdminProperties();
+    List<String> topics = Stream.of("readModelProducts-in-0", "readModelRecommendations-in-0", "readModelReviews-in-0")
+      .map(binding -> environment.getRequiredProperty("spring.cloud.stream.bindings." + binding + ".destination"))
+      .collect(Collectors.toList());
+
+    Mono.fromCallable(() -> endOffsets(adminProperties, topics))
+      .doOnError(e -> LOG.warn("Failed to fetch the end offsets of {}, retries: {}", topics, e.toString()))
+      .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1)).maxBackoff(Duration.ofMinutes(1)))
+      .subscribeOn(Schedulers.boundedElastic())
+      .subscribe(readModel::replayUntil);
+  }
+
+  private static Map<String, Long> endOffsets(Map<String, Object> adminProperties, List<String> topics) throws Exception {
+    try (Admin admin = Admin.create(adminProperties)) {
+
+      Map<TopicPartition, OffsetSpec> latest = new HashMap<>();
+      for (TopicDescription topic : admin.describeTopics(topics).allTopicNames().get().values()) {
+        topic.partitions().forEach(p -> latest.put(new TopicPartition(topic.name(), p.partition()), OffsetSpec.latest()));
+      }
+
+      Map<String, Long> endOffsets = new HashMap<>();
+      admin.listOffsets(latest).all().get().forEach((tp, info) ->
+        endOffsets.put(ProductReadModel.partition(tp.topic(), tp.partition()), info.offset()));
+      return endOffsets;
+    }
+  }
+
+  private static String partition(Message<?> message) {
+    String topic = message.getHeaders().get(KafkaHeaders.RECEIVED_TOPIC, String.class);
+    Integer partition = message.getHeaders().get(KafkaHeaders.RECEIVED_PARTITION, Integer.class);
+    return topic == null || partition == null ? null : ProductReadModel.partition(topic, partition);
+  }
+
+  private static long offset(Message<?> message) {
+    Long offset = message.getHeaders().get(KafkaHeaders.OFFSET, Long.class);
+    return offset == null ? -1 : offset;
+  }
+}
@@ -0,0 +1,52 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import se.magnus.microservices.composite.product.services.limiting.AdaptiveConcurrencyLimiter;
+
+class AdaptiveConcurrencyLimiterTests {
+
+  @Test
+  void rejectsCallsOverTheLimit() {
+
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 1, 10, 0.2);
+
+    AdaptiveConcurrencyLimiter.Permit first = limiter.tryAcquire().orElseThrow();
+    limiter.tryAcquire().orElseThrow();
+    assertFalse(limiter.tryAcquire().isPresent());
+
+    // A permit is only released once
+    first.onIgnore();
+    first.onIgnore();
+    assertEquals(1, limiter.getInFlight());
+    assertTrue(limiter.tryAcquire().isPresent());
+  }
+
+  @Test
+  void droppedCallsDecreaseTheLimit() {
+
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(100, 10, 200, 0.2);
+
+    for (int i = 0; i < 10; i++) {
+      limiter.tryAcquire().orElseThrow().onDropped();
+    }
+
+    assertTrue(limiter.getLimit() < 100);
+    assertTrue(limiter.getLimit() >= 10);
+  }
+
+  @Test
+  void unusedLimitIsNotIncreased() {
+
+    AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 200, 0.2);
+
+    for (int i = 0; i < 100; i++) {
+      limiter.tryAcquire().orElseThrow().onSuccess();
+    }
+
+    assertEquals(10, limiter.getLimit());
+  }
+}
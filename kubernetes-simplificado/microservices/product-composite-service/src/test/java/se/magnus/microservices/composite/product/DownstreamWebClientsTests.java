@@ -0,0 +1,113 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+import se.magnus.api.exceptions.ServiceUnavailableException;
+import se.magnus.microservices.composite.product.services.client.DownstreamWebClients;
+import se.magnus.microservices.composite.product.services.limiting.ConcurrencyLimiters;
+
+class DownstreamWebClientsTests {
+
+  private DisposableServer server;
+  private DownstreamWebClients webClients;
+
+  @BeforeEach
+  void setUp() {
+
+    // Responds after 500 ms, to keep the first call in the bulkhead while the second one is made
+    server = HttpServer.create()
+      .port(0)
+      .route(routes -> routes.get("/slow", (request, response) ->
+        response.sendString(Mono.just("ok").delayElement(Duration.ofMillis(500)))))
+      .bindNow();
+
+    BulkheadRegistry bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+      .maxConcurrentCalls(1)
+      .maxWaitDuration(Duration.ZERO)
+      .build());
+
+    ConcurrencyLimiters concurrencyLimiters = new ConcurrencyLimiters(false, 20, 5, 200, 0.2, new SimpleMeterRegistry());
+
+    webClients = new DownstreamWebClients(WebClient.builder(), bulkheadRegistry, concurrencyLimiters, new MockEnvironment());
+  }
+
+  @AfterEach
+  void tearDown() {
+    webClients.destroy();
+    server.disposeNow();
+  }
+
+  @Test
+  void bulkheadRejectsCallsOverTheLimit() {
+
+    // Returned as 503 and ignored by the circuit breakers, the downstream service did not fail
+    StepVerifier.create(Mono.zip(slowCall(DownstreamWebClients.REVIEW), slowCall(DownstreamWebClients.REVIEW)))
+      .expectErrorMatches(e -> e instanceof ServiceUnavailableException && e.getCause() instanceof BulkheadFullException)
+      .verify();
+  }
+
+  @Test
+  void connectionPoolRejectsCallsOverTheLimit() {
+
+    webClients.destroy();
+    MockEnvironment environment = new MockEnvironment()
+      .withProperty("app.downstream.review.max-connections", "1")
+      .withProperty("app.downstream.review.pending-acquire-max-count", "1")
+      .withProperty("app.downstream.review.pending-acquire-timeout", "100ms");
+    webClients = new DownstreamWebClients(
+      WebClient.builder(),
+      BulkheadRegistry.ofDefaults(),
+      new ConcurrencyLimiters(false, 20, 5, 200, 0.2, new SimpleMeterRegistry()),
+      environment);
+
+    StepVerifier.create(Mono.zip(slowCall(DownstreamWebClients.REVIEW), slowCall(DownstreamWebClients.REVIEW)))
+      .expectError(ServiceUnavailableException.class)
+      .verify();
+  }
+
+  @Test
+  void concurrencyLimiterRejectsCallsOverTheLimit() {
+
+    webClients.destroy();
+    webClients = new DownstreamWebClients(
+      WebClient.builder(),
+      BulkheadRegistry.ofDefaults(),
+      new ConcurrencyLimiters(true, 1, 1, 1, 0.2, new SimpleMeterRegistry()),
+      new MockEnvironment());
+
+    StepVerifier.create(Mono.zip(slowCall(DownstreamWebClients.REVIEW), slowCall(DownstreamWebClients.REVIEW)))
+      .expectError(ServiceUnavailableException.class)
+      .verify();
+  }
+
+  @Test
+  void slowDownstreamDoesNotBlockOtherDownstreams() {
+
+    StepVerifier.create(Mono.zip(slowCall(DownstreamWebClients.REVIEW), slowCall(DownstreamWebClients.PRODUCT)))
+      .expectNextCount(1)
+      .verifyComplete();
+
+    assertNotSame(webClients.get(DownstreamWebClients.REVIEW), webClients.get(DownstreamWebClients.PRODUCT));
+  }
+
+  private Mono<String> slowCall(String downstream) {
+    return webClients.get(downstream).get()
+      .uri("http://localhost:" + server.port() + "/slow")
+      .retrieve()
+      .bodyToMono(String.class);
+  }
+}
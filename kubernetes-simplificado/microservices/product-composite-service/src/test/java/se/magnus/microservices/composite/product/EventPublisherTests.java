@@ -0,0 +1,66 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static se.magnus.api.event.Event.Type.CREATE;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cloud.stream.function.StreamBridge;
+import org.springframework.messaging.Message;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.product.services.publishing.EventPublisher;
+import se.magnus.microservices.composite.product.services.publishing.PublisherConfirms;
+
+class EventPublisherTests {
+
+  private static final String BINDING = "reviews-out-0";
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  // One thread and one queued task, as many concurrent requests as that would overflow it without the batch permits
+  private final Scheduler scheduler = Schedulers.newBoundedElastic(1, 1, "publish-test");
+
+  @AfterEach
+  void tearDown() {
+    scheduler.dispose();
+  }
+
+  @Test
+  void concurrentRequestsDoNotOverflowTheScheduler() {
+
+    StreamBridge streamBridge = mock(StreamBridge.class);
+    when(streamBridge.send(anyString(), any(Message.class))).thenAnswer(invocation -> {
+      Thread.sleep(5);
+      return true;
+    });
+
+    EventPublisher publisher = new EventPublisher(
+      scheduler, streamBridge, meterRegistry, new PublisherConfirms(new MockEnvironment(), meterRegistry), 2, 1, Duration.ofSeconds(10));
+
+    List<Event> events = IntStream.range(0, 6)
+      .mapToObj(i -> new Event(CREATE, i, "event"))
+      .collect(Collectors.toList());
+
+    Flux.range(0, 8)
+      .flatMap(i -> publisher.publish(BINDING, events))
+      .then()
+      .block(Duration.ofSeconds(30));
+
+    // The meters are registered once per binding
+    assertEquals(24, meterRegistry.get("event.publishing.batch.size").tag("binding", BINDING).summary().count());
+    assertEquals(24, meterRegistry.get("event.publishing.latency").tag("binding", BINDING).timer().count());
+  }
+}
@@ -0,0 +1,53 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.product.services.limiting.ConcurrencyLimiters;
+import se.magnus.microservices.composite.product.services.limiting.InboundConcurrencyLimitFilter;
+
+class InboundConcurrencyLimitFilterTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  private final InboundConcurrencyLimitFilter filter =
+    new InboundConcurrencyLimitFilter(new ConcurrencyLimiters(true, 1, 1, 1, 0.2, meterRegistry));
+
+  @Test
+  void slowEndpointDoesNotLimitTheOthers() {
+
+    // A multi-get in flight takes the only permit of its endpoint
+    filter.filter(exchange(MockServerHttpRequest.get("/product-composite?productId=1,2")), e -> Mono.never()).subscribe();
+
+    MockServerWebExchange multiGet = exchange(MockServerHttpRequest.get("/product-composite?productId=3,4"));
+    filter.filter(multiGet, e -> Mono.empty()).block();
+    assertEquals(SERVICE_UNAVAILABLE, multiGet.getResponse().getStatusCode());
+
+    MockServerWebExchange get = exchange(MockServerHttpRequest.get("/product-composite/1"));
+    filter.filter(get, e -> Mono.empty()).block();
+    assertNull(get.getResponse().getStatusCode());
+
+    assertEquals(1.0, meterRegistry.get("concurrency.rejected").tag("name", "inbound GET /product-composite").counter().count());
+    assertEquals(1.0, meterRegistry.get("concurrency.limit").tag("name", "inbound GET /product-composite/{productId}").gauge().value());
+  }
+
+  @Test
+  void unknownPathsShareOneLimiter() {
+
+    filter.filter(exchange(MockServerHttpRequest.get("/product-composite/abc")), e -> Mono.never()).subscribe();
+
+    MockServerWebExchange other = exchange(MockServerHttpRequest.get("/product-composite/def"));
+    filter.filter(other, e -> Mono.empty()).block();
+    assertEquals(SERVICE_UNAVAILABLE, other.getResponse().getStatusCode());
+  }
+
+  private static MockServerWebExchange exchange(MockServerHttpRequest.BaseBuilder<?> request) {
+    return MockServerWebExchange.from(request);
+  }
+}
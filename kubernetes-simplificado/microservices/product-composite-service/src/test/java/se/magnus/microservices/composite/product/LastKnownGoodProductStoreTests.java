@@ -0,0 +1,76 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import se.magnus.api.core.product.Product;
+import se.magnus.microservices.composite.product.services.cache.LastKnownGoodProduct;
+import se.magnus.microservices.composite.product.services.cache.LastKnownGoodProductStore;
+
+class LastKnownGoodProductStoreTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void storesAndOverwritesProducts() {
+
+    LastKnownGoodProductStore store = new LastKnownGoodProductStore(1024, meterRegistry);
+
+    store.put(new Product(1, "name 1", 100, "sa"));
+    store.put(new Product(1, "name 1 updated", 101, "sa"));
+    store.put(new Product(2, null, 200, "sa"));
+
+    LastKnownGoodProduct product = store.get(1, "fallback-address").orElseThrow();
+    assertEquals(1, product.getProductId());
+    assertEquals("name 1 updated", product.getName());
+    assertEquals(101, product.getWeight());
+    assertEquals("fallback-address", product.getServiceAddress());
+
+    assertEquals(null, store.get(2, "fallback-address").orElseThrow().getName());
+    assertFalse(store.get(3, "fallback-address").isPresent());
+  }
+
+  @Test
+  void removesProducts() {
+
+    LastKnownGoodProductStore store = new LastKnownGoodProductStore(1024, meterRegistry);
+
+    store.put(new Product(1, "name", 1, "sa"));
+    store.remove(1);
+
+    assertFalse(store.get(1, "sa").isPresent());
+  }
+
+  @Test
+  void staysWithinCapacity() {
+
+    // A single bucket with two slots
+    LastKnownGoodProductStore store = new LastKnownGoodProductStore(2, meterRegistry);
+
+    store.put(new Product(1, "name", 1, "sa"));
+    store.put(new Product(2, "name", 2, "sa"));
+    store.put(new Product(3, "name", 3, "sa"));
+
+    int found = 0;
+    for (int productId = 1; productId <= 3; productId++) {
+      found += store.get(productId, "sa").isPresent() ? 1 : 0;
+    }
+    assertEquals(2, found);
+    assertTrue(store.get(3, "sa").isPresent());
+    assertEquals(1.0, meterRegistry.get("cache.evictions").counter().count());
+  }
+
+  @Test
+  void rejectsTooLongNames() {
+
+    LastKnownGoodProductStore store = new LastKnownGoodProductStore(1024, meterRegistry);
+
+    store.put(new Product(1, "short name", 1, "sa"));
+    store.put(new Product(1, "x".repeat(100), 1, "sa"));
+
+    assertFalse(store.get(1, "sa").isPresent());
+  }
+}
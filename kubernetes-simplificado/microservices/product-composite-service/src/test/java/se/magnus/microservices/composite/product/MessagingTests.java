@@ -13,6 +13,8 @@ import static se.magnus.microservices.composite.product.IsSameEvent.sameEventExc
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
@@ -117,6 +119,26 @@ class MessagingTests {
     assertThat(reviewMessages.get(0), is(sameEventExceptCreatedAt(expectedReviewEvent)));
   }
 
+  @Test
+  void createLargeCompositeProduct() {
+
+    // More recommendations and reviews than the task queue of the publishEventScheduler can hold
+    int count = 250;
+    List<RecommendationSummary> recommendations = IntStream.rangeClosed(1, count)
+      .mapToObj(i -> new RecommendationSummary(i, "a", 1, "c"))
+      .collect(Collectors.toList());
+    List<ReviewSummary> reviews = IntStream.rangeClosed(1, count)
+      .mapToObj(i -> new ReviewSummary(i, "a", "s", "c"))
+      .collect(Collectors.toList());
+
+    ProductAggregate composite = new ProductAggregate(1, "name", 1, recommendations, reviews, null);
+    postAndVerifyProduct(composite, ACCEPTED);
+
+    assertEquals(1, getMessages("products").size());
+    assertEquals(count, getMessages("recommendations").size());
+    assertEquals(count, getMessages("reviews").size());
+  }
+
   @Test
   void deleteCompositeProduct() {
     deleteAndVerifyProduct(1, ACCEPTED);
@@ -0,0 +1,100 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.microservices.composite.product.services.cache.ProductAggregateCache;
+
+class ProductAggregateCacheTests {
+
+  private static final int PRODUCT_ID = 1;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger loads = new AtomicInteger();
+
+  private ProductAggregateCache cache;
+
+  @BeforeEach
+  void setUp() {
+    cache = new ProductAggregateCache(true, 100, Duration.ofMinutes(1), Duration.ZERO, meterRegistry);
+  }
+
+  @Test
+  void cachesAggregateUntilInvalidated() {
+
+    ProductAggregate first = cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+    ProductAggregate second = cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+
+    assertSame(first, second);
+    assertEquals(1, loads.get());
+    assertEquals(1.0, meterRegistry.get("cache.gets").tag("result", "hit").functionCounter().count());
+
+    cache.invalidate(PRODUCT_ID);
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+
+    assertEquals(2, loads.get());
+    assertEquals(1.0, meterRegistry.get("cache.invalidations").counter().count());
+  }
+
+  @Test
+  void doesNotCacheDegradedAggregate() {
+
+    cache.get(PRODUCT_ID, () -> ProductAggregateCache.markDegraded().then(load(PRODUCT_ID))).block();
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void passesDegradedOnToOuterTracker() {
+
+    AtomicBoolean degraded = new AtomicBoolean(false);
+    cache.get(PRODUCT_ID, () -> ProductAggregateCache.markDegraded().then(load(PRODUCT_ID)))
+      .contextWrite(ProductAggregateCache.trackDegraded(degraded))
+      .block();
+
+    assertTrue(degraded.get());
+  }
+
+  @Test
+  void dropsAggregateInvalidatedWhileLoading() {
+
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID).doOnNext(a -> cache.invalidate(PRODUCT_ID))).block();
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+
+    assertEquals(2, loads.get());
+  }
+
+  @Test
+  void doesNotCacheAggregateLoadedWhileSettling() {
+
+    cache = new ProductAggregateCache(true, 100, Duration.ofMinutes(1), Duration.ofMinutes(1), meterRegistry);
+
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+    assertEquals(1, loads.get());
+
+    // The core services may not have applied the event yet
+    cache.invalidate(PRODUCT_ID);
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+    cache.get(PRODUCT_ID, () -> load(PRODUCT_ID)).block();
+
+    assertEquals(3, loads.get());
+  }
+
+  private Mono<ProductAggregate> load(int productId) {
+    return Mono.fromCallable(() -> {
+      loads.incrementAndGet();
+      return new ProductAggregate(productId, "name", 1, null, null, null);
+    });
+  }
+}
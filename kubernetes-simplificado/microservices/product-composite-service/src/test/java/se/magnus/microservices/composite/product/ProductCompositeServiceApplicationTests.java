@@ -1,27 +1,37 @@
 package se.magnus.microservices.composite.product;
 
 import static java.util.Collections.singletonList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
 
+import java.util.List;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import se.magnus.api.composite.product.ProductAggregate;
+import se.magnus.api.composite.product.ProductAggregatePart;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.recommendation.Recommendation;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
+import se.magnus.api.exceptions.ServiceUnavailableException;
 import se.magnus.microservices.composite.product.services.ProductCompositeIntegration;
 
 @SpringBootTest(
@@ -54,6 +64,12 @@ class ProductCompositeServiceApplicationTests {
 		when(compositeIntegration.getReviews(PRODUCT_ID_OK))
 				.thenReturn(Flux.fromIterable(singletonList(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address"))));
 
+    when(compositeIntegration.streamRecommendations(PRODUCT_ID_OK))
+      .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
+
+    when(compositeIntegration.streamReviews(PRODUCT_ID_OK))
+      .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+
     when(compositeIntegration.getProduct(eq(PRODUCT_ID_NOT_FOUND), anyInt(), anyInt())).thenThrow(new NotFoundException("NOT FOUND: " + PRODUCT_ID_NOT_FOUND));
 
     when(compositeIntegration.getProduct(eq(PRODUCT_ID_INVALID), anyInt(), anyInt())).thenThrow(new InvalidInputException("INVALID: " + PRODUCT_ID_INVALID));
@@ -72,6 +88,243 @@ class ProductCompositeServiceApplicationTests {
       .jsonPath("$.reviews.length()").isEqualTo(1);
   }
 
+  @Test
+  void getProductNotModified() {
+
+    String etag = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().exists("ETag")
+      .returnResult(ProductAggregate.class).getResponseHeaders().getETag();
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .ifNoneMatch(etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectBody().isEmpty();
+
+    // A new version of a review gets a new ETag
+    Review updatedReview = new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address");
+    updatedReview.setVersion(1);
+    when(compositeIntegration.getReviews(PRODUCT_ID_OK)).thenReturn(Flux.just(updatedReview));
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .ifNoneMatch(etag)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK);
+  }
+
+  @Test
+  void getProductStream() {
+
+    List<ProductAggregatePart> parts = client.get()
+      .uri("/product-composite/" + PRODUCT_ID_OK + "/stream")
+      .accept(MediaType.APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+      .expectBodyList(ProductAggregatePart.class)
+      .returnResult()
+      .getResponseBody();
+
+    assertEquals(3, parts.size());
+    assertEquals(ProductAggregatePart.Type.PRODUCT, parts.get(0).getType());
+    assertEquals(PRODUCT_ID_OK, parts.get(0).getProduct().getProductId());
+    assertEquals(2, parts.stream().filter(p -> p.getType() != ProductAggregatePart.Type.PRODUCT).count());
+
+    // Not shared with concurrent requests, see ProductCompositeIntegration.streamReviews
+    verify(compositeIntegration, never()).getReviews(anyInt());
+  }
+
+  @Test
+  void getProductStreamNotFound() {
+
+    client.get()
+      .uri("/product-composite/" + PRODUCT_ID_NOT_FOUND + "/stream")
+      .accept(MediaType.APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_FOUND);
+  }
+
+  @Test
+  void getProductsByIds() {
+
+    int productIdOk2 = 4;
+
+    when(compositeIntegration.getProducts(anyList()))
+      .thenReturn(Flux.just(
+        new Product(PRODUCT_ID_OK, "name", 1, "mock-address"),
+        new Product(productIdOk2, "name", 1, "mock-address")));
+
+    when(compositeIntegration.getRecommendations(anyList(), isNull(), isNull()))
+      .thenReturn(Flux.just(
+        new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"),
+        new Recommendation(productIdOk2, 1, "author", 1, "content", "mock address"),
+        new Recommendation(productIdOk2, 2, "author", 1, "content", "mock address")));
+
+    when(compositeIntegration.getReviews(anyList(), isNull(), isNull()))
+      .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+
+    client.get()
+      .uri("/product-composite?productId=" + productIdOk2 + "," + PRODUCT_ID_OK + "," + PRODUCT_ID_NOT_FOUND)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].productId").isEqualTo(productIdOk2)
+      .jsonPath("$[0].recommendations.length()").isEqualTo(2)
+      .jsonPath("$[0].reviews.length()").isEqualTo(0)
+      .jsonPath("$[1].productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$[1].recommendations.length()").isEqualTo(1)
+      .jsonPath("$[1].reviews.length()").isEqualTo(1);
+  }
+
+  @Test
+  void getProductsByIdsWithFailedReviews() {
+
+    when(compositeIntegration.getProducts(anyList()))
+      .thenReturn(Flux.just(new Product(PRODUCT_ID_OK, "name", 1, "mock-address")));
+
+    when(compositeIntegration.getRecommendations(anyList(), isNull(), isNull()))
+      .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address")));
+
+    when(compositeIntegration.getReviews(anyList(), isNull(), isNull()))
+      .thenReturn(Flux.error(new RuntimeException("review service unavailable")));
+
+    client.get()
+      .uri("/product-composite?productId=" + PRODUCT_ID_OK)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(1)
+      .jsonPath("$[0].recommendations.length()").isEqualTo(1)
+      .jsonPath("$[0].reviews.length()").isEqualTo(0);
+  }
+
+  @Test
+  void getProductsByIdsInvalidInput() {
+
+    client.get()
+      .uri("/product-composite?productId=" + PRODUCT_ID_OK + ",-1")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+      .expectBody()
+      .jsonPath("$.message").isEqualTo("Invalid productId: -1");
+
+    verify(compositeIntegration, never()).getProducts(anyList());
+  }
+
+  @Test
+  void getProductSparseFields() {
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?fields=name,reviews", OK)
+      .jsonPath("$.productId").isEqualTo(PRODUCT_ID_OK)
+      .jsonPath("$.name").isEqualTo("name")
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.weight").doesNotExist()
+      .jsonPath("$.recommendations").doesNotExist()
+      .jsonPath("$.serviceAddresses").doesNotExist();
+
+    verify(compositeIntegration, never()).getRecommendations(anyInt());
+  }
+
+  @Test
+  void getProductSparseFieldsInvalidInput() {
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?fields=name,price", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid field: price");
+  }
+
+  @Test
+  void getProductPage() {
+
+    when(compositeIntegration.getRecommendations(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.just(
+        new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"),
+        new Recommendation(PRODUCT_ID_OK, 2, "author", 1, "content", "mock address"),
+        new Recommendation(PRODUCT_ID_OK, 3, "author", 1, "content", "mock address")));
+
+    when(compositeIntegration.getReviews(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=2", OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(2)
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.nextCursor").isEqualTo("2:-");
+
+    when(compositeIntegration.getRecommendations(List.of(PRODUCT_ID_OK), 3, 2))
+      .thenReturn(Flux.just(new Recommendation(PRODUCT_ID_OK, 3, "author", 1, "content", "mock address")));
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=2&cursor=2:-", OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(1)
+      .jsonPath("$.reviews.length()").isEqualTo(0)
+      .jsonPath("$.nextCursor").doesNotExist();
+  }
+
+  @Test
+  void getProductPageKeepsCursorOfFailedPart() {
+
+    when(compositeIntegration.getRecommendations(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.just(
+        new Recommendation(PRODUCT_ID_OK, 1, "author", 1, "content", "mock address"),
+        new Recommendation(PRODUCT_ID_OK, 2, "author", 1, "content", "mock address"),
+        new Recommendation(PRODUCT_ID_OK, 3, "author", 1, "content", "mock address")));
+
+    when(compositeIntegration.getReviews(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.error(new RuntimeException("review service unavailable")));
+
+    // The reviews are not reported as exhausted, they start over from the first one on the next page
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=2", OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(2)
+      .jsonPath("$.reviews.length()").isEqualTo(0)
+      .jsonPath("$.nextCursor").isEqualTo("2:");
+
+    when(compositeIntegration.getRecommendations(List.of(PRODUCT_ID_OK), 3, 2))
+      .thenReturn(Flux.error(new RuntimeException("recommendation service unavailable")));
+    when(compositeIntegration.getReviews(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.just(new Review(PRODUCT_ID_OK, 1, "author", "subject", "content", "mock address")));
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=2&cursor=2:", OK)
+      .jsonPath("$.recommendations.length()").isEqualTo(0)
+      .jsonPath("$.reviews.length()").isEqualTo(1)
+      .jsonPath("$.nextCursor").isEqualTo("2:-");
+  }
+
+  @Test
+  void getProductPageRejectedByConcurrencyLimiter() {
+
+    when(compositeIntegration.getRecommendations(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.error(new ServiceUnavailableException("Concurrency limit reached for calls to recommendation")));
+    when(compositeIntegration.getReviews(List.of(PRODUCT_ID_OK), 3, null))
+      .thenReturn(Flux.empty());
+
+    // Load shedding is not a partial response
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=2", SERVICE_UNAVAILABLE)
+      .jsonPath("$.message").isEqualTo("Concurrency limit reached for calls to recommendation");
+  }
+
+  @Test
+  void getProductPageInvalidInput() {
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?limit=0", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid limit: 0, must be between 1 and 100");
+
+    getAndVerifyProduct(PRODUCT_ID_OK + "?cursor=abc", UNPROCESSABLE_ENTITY)
+      .jsonPath("$.message").isEqualTo("Invalid cursor: abc");
+  }
+
   @Test
   void getProductNotFound() {
 
@@ -89,8 +342,12 @@ class ProductCompositeServiceApplicationTests {
   }
 
   private WebTestClient.BodyContentSpec getAndVerifyProduct(int productId, HttpStatus expectedStatus) {
+    return getAndVerifyProduct(String.valueOf(productId), expectedStatus);
+  }
+
+  private WebTestClient.BodyContentSpec getAndVerifyProduct(String productIdAndQuery, HttpStatus expectedStatus) {
     return client.get()
-      .uri("/product-composite/" + productId)
+      .uri("/product-composite/" + productIdAndQuery)
       .accept(APPLICATION_JSON)
       .exchange()
       .expectStatus().isEqualTo(expectedStatus)
@@ -0,0 +1,145 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.jupiter.api.Test;
+import se.magnus.api.core.product.Product;
+import se.magnus.api.core.recommendation.Recommendation;
+import se.magnus.api.core.review.Review;
+import se.magnus.api.event.Event;
+import se.magnus.microservices.composite.product.services.readmodel.ProductReadModel;
+import se.magnus.microservices.composite.product.services.readmodel.ProductView;
+
+class ProductReadModelTests {
+
+  private static final int PRODUCT_ID = 1;
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void viewIsOnlyServedWhenTheProductHasArrived() {
+
+    ProductReadModel readModel = new ProductReadModel(true, false, 100, meterRegistry);
+
+    // Events on different topics can arrive in any order
+    readModel.applyRecommendationEvent(new Event<>(CREATE, PRODUCT_ID, new Recommendation(PRODUCT_ID, 2, "a", 1, "c", null)));
+    readModel.applyRecommendationEvent(new Event<>(CREATE, PRODUCT_ID, new Recommendation(PRODUCT_ID, 1, "a", 1, "c", null)));
+    readModel.applyReviewEvent(new Event<>(CREATE, PRODUCT_ID, new Review(PRODUCT_ID, 1, "a", "s", "c", null)));
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)));
+
+    ProductView view = verify(readModel, PRODUCT_ID).orElseThrow();
+    assertEquals("name", view.getProduct().getName());
+    assertEquals(2, view.getRecommendations().size());
+    assertEquals(1, view.getRecommendations().get(0).getRecommendationId());
+    assertEquals(1, view.getReviews().size());
+    assertEquals(1.0, meterRegistry.get("read.model.size").gauge().value());
+  }
+
+  @Test
+  void viewIsOnlyServedOnceVerified() {
+
+    ProductReadModel readModel = new ProductReadModel(true, false, 100, meterRegistry);
+
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)));
+    ProductView unverified = readModel.getUnverified(PRODUCT_ID).orElseThrow();
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+
+    // A later event, e.g. a review that arrives after the product, gives a new view that must be verified again
+    readModel.applyReviewEvent(new Event<>(CREATE, PRODUCT_ID, new Review(PRODUCT_ID, 1, "a", "s", "c", null)));
+    assertFalse(readModel.verify(PRODUCT_ID, unverified));
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+
+    assertTrue(readModel.verify(PRODUCT_ID, readModel.getUnverified(PRODUCT_ID).orElseThrow()));
+    assertEquals(1, readModel.get(PRODUCT_ID).orElseThrow().getReviews().size());
+
+    readModel.applyReviewEvent(new Event<>(DELETE, PRODUCT_ID, null));
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+  }
+
+  @Test
+  void deleteEventsRemoveTheView() {
+
+    ProductReadModel readModel = new ProductReadModel(true, false, 100, meterRegistry);
+
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)));
+    readModel.applyRecommendationEvent(new Event<>(CREATE, PRODUCT_ID, new Recommendation(PRODUCT_ID, 1, "a", 1, "c", null)));
+
+    readModel.applyRecommendationEvent(new Event<>(DELETE, PRODUCT_ID, null));
+    assertEquals(0, verify(readModel, PRODUCT_ID).orElseThrow().getRecommendations().size());
+
+    readModel.applyProductEvent(new Event<>(DELETE, PRODUCT_ID, null));
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+    assertEquals(0.0, meterRegistry.get("read.model.size").gauge().value());
+  }
+
+  @Test
+  void rebuildServesNoViewsUntilTheEndOffsetsAreReached() {
+
+    ProductReadModel readModel = new ProductReadModel(true, true, 100, meterRegistry);
+    String products = ProductReadModel.partition("products", 0);
+    String reviews = ProductReadModel.partition("reviews", 0);
+
+    // Events before the end offsets are known, e.g. recent ones, do not end the replay
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)), products, 0);
+    assertTrue(readModel.isRebuilding());
+
+    readModel.replayUntil(Map.of(products, 2L, reviews, 1L, ProductReadModel.partition("recommendations", 0), 0L));
+    readModel.applyProductEvent(new Event<>(DELETE, PRODUCT_ID, null), products, 1);
+    assertTrue(readModel.isRebuilding());
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+
+    readModel.applyReviewEvent(new Event<>(CREATE, PRODUCT_ID, new Review(PRODUCT_ID, 1, "a", "s", "c", null)), reviews, 0);
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)), products, 2);
+
+    assertFalse(readModel.isRebuilding());
+    assertEquals(1, verify(readModel, PRODUCT_ID).orElseThrow().getReviews().size());
+    assertTrue(meterRegistry.get("read.model.lag").gauge().value() < 60);
+
+    readModel.rebuild();
+    assertTrue(readModel.isRebuilding());
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+  }
+
+  @Test
+  void viewsOfEvictedProductsAreNotServed() {
+
+    ProductReadModel readModel = new ProductReadModel(true, false, 1, meterRegistry);
+
+    readModel.applyRecommendationEvent(new Event<>(CREATE, 1, new Recommendation(1, 1, "a", 1, "c", null)));
+    readModel.applyProductEvent(new Event<>(CREATE, 2, new Product(2, "name", 1, null)));
+    assertEquals(1.0, meterRegistry.get("read.model.size").gauge().value());
+    assertEquals(1.0, meterRegistry.get("read.model.evictions").counter().count());
+
+    // The earlier events of the evicted view are gone, a view built up from its later events is partial
+    int evictedId = readModel.getUnverified(2).isPresent() ? 1 : 2;
+    readModel.applyProductEvent(new Event<>(CREATE, evictedId, new Product(evictedId, "name", 1, null)));
+    assertFalse(readModel.getUnverified(evictedId).isPresent());
+    assertFalse(verify(readModel, evictedId).isPresent());
+  }
+
+  @Test
+  void disabledReadModelIgnoresEvents() {
+
+    ProductReadModel readModel = new ProductReadModel(false, false, 100, meterRegistry);
+
+    readModel.applyProductEvent(new Event<>(CREATE, PRODUCT_ID, new Product(PRODUCT_ID, "name", 1, null)));
+
+    assertFalse(readModel.get(PRODUCT_ID).isPresent());
+    assertEquals(0.0, meterRegistry.get("read.model.size").gauge().value());
+  }
+
+  // Verifies the view as if it was found to be the same as the aggregate of the core services
+  private static Optional<ProductView> verify(ProductReadModel readModel, int productId) {
+    readModel.getUnverified(productId).ifPresent(view -> readModel.verify(productId, view));
+    return readModel.get(productId);
+  }
+}
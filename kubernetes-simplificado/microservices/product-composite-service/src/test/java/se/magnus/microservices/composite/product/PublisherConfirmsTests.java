@@ -0,0 +1,121 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessagingException;
+import org.springframework.messaging.support.ErrorMessage;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import se.magnus.microservices.composite.product.services.publishing.PublisherConfirms;
+
+class PublisherConfirmsTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+  @Test
+  void rabbitConfirmCompletesFuture() {
+
+    PublisherConfirms confirms = new PublisherConfirms(environment("rabbit"), meterRegistry);
+
+    MessageBuilder<String> builder = MessageBuilder.withPayload("event");
+    CompletableFuture<Void> confirm = confirms.prepare(builder);
+    assertFalse(confirm.isDone());
+    assertEquals(1.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+
+    CorrelationData correlationData = (CorrelationData) builder.build().getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION);
+    correlationData.getFuture().complete(new CorrelationData.Confirm(true, null));
+
+    assertTrue(confirm.isDone());
+    assertFalse(confirm.isCompletedExceptionally());
+    assertEquals(0.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+  }
+
+  @Test
+  void rabbitNackFailsFuture() {
+
+    PublisherConfirms confirms = new PublisherConfirms(environment("rabbit"), meterRegistry);
+
+    MessageBuilder<String> builder = MessageBuilder.withPayload("event");
+    CompletableFuture<Void> confirm = confirms.prepare(builder);
+
+    CorrelationData correlationData = (CorrelationData) builder.build().getHeaders().get(AmqpHeaders.PUBLISH_CONFIRM_CORRELATION);
+    correlationData.getFuture().complete(new CorrelationData.Confirm(false, "nack"));
+
+    assertThrows(ExecutionException.class, confirm::get);
+    assertEquals(1, meterRegistry.get("event.publishing.confirm.latency").tag("result", "failure").timer().count());
+  }
+
+  @Test
+  void kafkaRecordMetadataCompletesFuture() {
+
+    PublisherConfirms confirms = new PublisherConfirms(environment("kafka"), meterRegistry);
+
+    MessageBuilder<String> builder = MessageBuilder.withPayload("event");
+    CompletableFuture<Void> confirm = confirms.prepare(builder);
+    Message<String> sent = builder.build();
+    assertFalse(confirm.isDone());
+
+    confirms.onKafkaRecordMetadata(sent);
+
+    assertTrue(confirm.isDone());
+    assertFalse(confirm.isCompletedExceptionally());
+  }
+
+  @Test
+  void kafkaSendFailureFailsFuture() {
+
+    PublisherConfirms confirms = new PublisherConfirms(environment("kafka"), meterRegistry);
+
+    MessageBuilder<String> builder = MessageBuilder.withPayload("event");
+    CompletableFuture<Void> confirm = confirms.prepare(builder);
+    Message<String> sent = builder.build();
+
+    confirms.onKafkaSendFailure(new ErrorMessage(new MessagingException(sent, "send failed")));
+
+    assertTrue(confirm.isCompletedExceptionally());
+    assertEquals(1, meterRegistry.get("event.publishing.confirm.latency").tag("result", "failure").timer().count());
+    assertEquals(0.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+  }
+
+  @Test
+  void failedSendReleasesConfirm() {
+
+    PublisherConfirms confirms = new PublisherConfirms(environment("kafka"), meterRegistry);
+
+    CompletableFuture<Void> confirm = confirms.prepare(MessageBuilder.withPayload("event"));
+    assertEquals(1.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+
+    confirm.completeExceptionally(new IllegalStateException("send failed"));
+
+    assertEquals(0.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+    assertEquals(1, meterRegistry.get("event.publishing.confirm.latency").tag("result", "failure").timer().count());
+  }
+
+  @Test
+  void unconfirmedMessageTimesOut() {
+
+    MockEnvironment environment = environment("kafka").withProperty("app.event-publishing.confirms.timeout", "50ms");
+    PublisherConfirms confirms = new PublisherConfirms(environment, meterRegistry);
+
+    CompletableFuture<Void> confirm = confirms.prepare(MessageBuilder.withPayload("event"));
+
+    assertThrows(ExecutionException.class, confirm::get);
+    assertEquals(0.0, meterRegistry.get("event.publishing.outstanding").gauge().value());
+  }
+
+  private MockEnvironment environment(String binder) {
+    return new MockEnvironment()
+      .withProperty("app.event-publishing.confirms.enabled", "true")
+      .withProperty("spring.cloud.stream.defaultBinder", binder);
+  }
+}
@@ -0,0 +1,121 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+import se.magnus.microservices.composite.product.services.coalescing.RequestCoalescer;
+import se.magnus.util.http.Deadline;
+
+class RequestCoalescerTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  private RequestCoalescer coalescer;
+  private Sinks.One<String> response;
+
+  @BeforeEach
+  void setUp() {
+    coalescer = new RequestCoalescer(true, meterRegistry);
+    response = Sinks.one();
+  }
+
+  @Test
+  void sharesInFlightCall() {
+
+    Mono<String> first = coalescer.mono("product", 1, this::call);
+    Mono<String> second = coalescer.mono("product", 1, this::call);
+
+    StepVerifier.create(Mono.zip(first, second))
+      .then(() -> response.tryEmitValue("product 1"))
+      .assertNext(t -> {
+        assertEquals("product 1", t.getT1());
+        assertEquals("product 1", t.getT2());
+      })
+      .verifyComplete();
+
+    assertEquals(1, calls.get());
+    assertEquals(1.0, meterRegistry.get("request.coalescing.calls").tag("result", "collapsed").counter().count());
+    assertEquals(0.0, inFlight());
+  }
+
+  @Test
+  void onlyJoinsCallsWithTheSameOrLaterDeadline() {
+
+    Deadline shorter = Deadline.after(Duration.ofSeconds(1));
+    Deadline longer = Deadline.after(Duration.ofSeconds(5));
+
+    Mono<String> first = coalescer.mono("product", 1, this::call).contextWrite(ctx -> ctx.put(Deadline.class, shorter));
+    // Would be cut off at the deadline of the first call, starts its own call
+    Mono<String> second = coalescer.mono("product", 1, this::call).contextWrite(ctx -> ctx.put(Deadline.class, longer));
+    // Joins the second call, that outlasts it
+    Mono<String> third = coalescer.mono("product", 1, this::call).contextWrite(ctx -> ctx.put(Deadline.class, shorter));
+
+    StepVerifier.create(Mono.zip(first, second, third))
+      .then(() -> response.tryEmitValue("product 1"))
+      .assertNext(t -> {
+        assertEquals("product 1", t.getT1());
+        assertEquals("product 1", t.getT2());
+        assertEquals("product 1", t.getT3());
+      })
+      .verifyComplete();
+
+    assertEquals(2, calls.get());
+    assertEquals(1.0, meterRegistry.get("request.coalescing.calls").tag("result", "collapsed").counter().count());
+    assertEquals(0.0, inFlight());
+  }
+
+  @Test
+  void removesFailedCall() {
+
+    StepVerifier.create(coalescer.mono("product", 1, this::call))
+      .then(() -> response.tryEmitError(new RuntimeException("failed")))
+      .verifyErrorMessage("failed");
+
+    assertEquals(0.0, inFlight());
+
+    response = Sinks.one();
+    StepVerifier.create(coalescer.mono("product", 1, this::call))
+      .then(() -> response.tryEmitValue("product 1"))
+      .expectNext("product 1")
+      .verifyComplete();
+
+    assertEquals(2, calls.get());
+  }
+
+  @Test
+  void cancelsCallWhenAllSubscribersCancel() {
+
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    Mono<String> call = response.asMono().doOnCancel(() -> cancelled.set(true));
+
+    Disposable first = coalescer.mono("product", 1, () -> call).subscribe();
+    Disposable second = coalescer.mono("product", 1, () -> call).subscribe();
+
+    first.dispose();
+    assertEquals(1.0, inFlight());
+
+    second.dispose();
+    assertTrue(cancelled.get());
+    assertEquals(0.0, inFlight());
+  }
+
+  private Mono<String> call() {
+    calls.incrementAndGet();
+    return response.asMono();
+  }
+
+  private double inFlight() {
+    return meterRegistry.get("request.coalescing.in-flight").gauge().value();
+  }
+}
@@ -0,0 +1,93 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import se.magnus.microservices.composite.product.services.hedging.RequestHedger;
+
+class RequestHedgerTests {
+
+  private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+  private final AtomicInteger calls = new AtomicInteger();
+
+  @Test
+  void hedgedRequestWinsOverSlowRequest() {
+
+    RequestHedger hedger = new RequestHedger(environment("1.0"), meterRegistry);
+
+    // The first request never responds, the hedged request responds at once
+    StepVerifier.create(hedger.flux("review", () -> calls.incrementAndGet() == 1 ? Flux.never() : Flux.just("r1", "r2")))
+      .expectNext("r1", "r2")
+      .verifyComplete();
+
+    assertEquals(2, calls.get());
+    assertEquals(1.0, meterRegistry.get("request.hedging.wins").counter().count());
+  }
+
+  @Test
+  void noHedgeForFastRequest() {
+
+    RequestHedger hedger = new RequestHedger(environment("1.0"), meterRegistry);
+
+    StepVerifier.create(hedger.flux("review", () -> { calls.incrementAndGet(); return Flux.just("r1"); }))
+      .expectNext("r1")
+      .verifyComplete();
+
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void streamsTheWinningResponse() {
+
+    RequestHedger hedger = new RequestHedger(environment("1.0"), meterRegistry);
+
+    // Would never be emitted if the response was collected before the race
+    StepVerifier.create(hedger.flux("review", () -> { calls.incrementAndGet(); return Flux.concat(Flux.just("r1"), Flux.never()); }))
+      .expectNext("r1")
+      .thenCancel()
+      .verify(Duration.ofSeconds(1));
+
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  void failedHedgeDoesNotWin() {
+
+    RequestHedger hedger = new RequestHedger(environment("1.0"), meterRegistry);
+
+    StepVerifier.create(hedger.flux("review", () -> calls.incrementAndGet() == 1
+        ? Flux.just("r1").delayElements(Duration.ofMillis(100))
+        : Flux.error(new RuntimeException("hedge failed"))))
+      .expectNext("r1")
+      .verifyComplete();
+
+    assertEquals(2, calls.get());
+    assertEquals(0.0, meterRegistry.get("request.hedging.wins").counter().count());
+  }
+
+  @Test
+  void hedgesAreCappedByMaxShare() {
+
+    RequestHedger hedger = new RequestHedger(environment("0.0"), meterRegistry);
+
+    StepVerifier.create(hedger.flux("review", () -> { calls.incrementAndGet(); return Flux.just("r1").delayElements(Duration.ofMillis(100)); }))
+      .expectNext("r1")
+      .verifyComplete();
+
+    assertEquals(1, calls.get());
+    assertEquals(0.0, meterRegistry.get("request.hedging.requests").tag("type", "hedge").counter().count());
+  }
+
+  private MockEnvironment environment(String maxShare) {
+    return new MockEnvironment()
+      .withProperty("app.hedging.review.enabled", "true")
+      .withProperty("app.hedging.review.delay", "20ms")
+      .withProperty("app.hedging.review.max-share", maxShare);
+  }
+}
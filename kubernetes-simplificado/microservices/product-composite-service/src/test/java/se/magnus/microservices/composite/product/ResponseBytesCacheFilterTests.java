@@ -0,0 +1,63 @@
+package se.magnus.microservices.composite.product;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.http.HttpHeaders.ACCEPT_ENCODING;
+import static org.springframework.http.HttpHeaders.CONTENT_ENCODING;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Mono;
+import se.magnus.microservices.composite.product.services.cache.ResponseBytesCache;
+import se.magnus.microservices.composite.product.services.cache.ResponseBytesCacheFilter;
+
+class ResponseBytesCacheFilterTests {
+
+  private static final int PRODUCT_ID = 1;
+  private static final byte[] JSON = "{\"productId\":1,\"name\":\"name\",\"weight\":1}".getBytes(UTF_8);
+
+  private ResponseBytesCacheFilter filter;
+
+  @BeforeEach
+  void setUp() {
+    ResponseBytesCache cache = new ResponseBytesCache(
+      true, true, DataSize.ofMegabytes(1), Duration.ofMinutes(1), Duration.ZERO, new SimpleMeterRegistry());
+    cache.put(PRODUCT_ID, cache.generation(PRODUCT_ID), JSON, "W/\"1\"");
+    filter = new ResponseBytesCacheFilter(cache);
+  }
+
+  @Test
+  void servesGzippedResponseIfAccepted() {
+    assertEquals("gzip", contentEncoding("gzip, deflate"));
+    assertEquals("gzip", contentEncoding("deflate;q=1.0, gzip;q=0.5"));
+    assertEquals("gzip", contentEncoding("*"));
+  }
+
+  @Test
+  void servesPlainResponseIfGzipIsNotAccepted() {
+    assertNull(contentEncoding(null));
+    assertNull(contentEncoding("deflate"));
+    assertNull(contentEncoding("gzip;q=0"));
+    assertNull(contentEncoding("gzip; q=0.0, deflate"));
+    assertNull(contentEncoding("*, gzip;q=0"));
+    assertNull(contentEncoding("*;q=0"));
+  }
+
+  private String contentEncoding(String acceptEncoding) {
+    MockServerHttpRequest.BaseBuilder<?> request = MockServerHttpRequest.get("/product-composite/" + PRODUCT_ID);
+    if (acceptEncoding != null) {
+      request.header(ACCEPT_ENCODING, acceptEncoding);
+    }
+    MockServerWebExchange exchange = MockServerWebExchange.from(request);
+
+    filter.filter(exchange, e -> Mono.error(new IllegalStateException("Not served from the cache"))).block();
+
+    return exchange.getResponse().getHeaders().getFirst(CONTENT_ENCODING);
+  }
+}
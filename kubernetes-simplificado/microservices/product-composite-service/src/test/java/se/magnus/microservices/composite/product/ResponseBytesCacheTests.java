@@ -0,0 +1,61 @@
+package se.magnus.microservices.composite.product;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.zip.GZIPInputStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+import se.magnus.microservices.composite.product.services.cache.ResponseBytesCache;
+
+class ResponseBytesCacheTests {
+
+  private static final int PRODUCT_ID = 1;
+  private static final byte[] JSON = "{\"productId\":1,\"name\":\"name\",\"weight\":1}".getBytes(UTF_8);
+  private static final String ETAG = "W/\"1\"";
+
+  private ResponseBytesCache cache;
+
+  @BeforeEach
+  void setUp() {
+    cache = new ResponseBytesCache(true, true, DataSize.ofMegabytes(1), Duration.ofMinutes(1), Duration.ZERO, new SimpleMeterRegistry());
+  }
+
+  @Test
+  void cachesBytesAndGzippedCopyUntilInvalidated() throws IOException {
+
+    cache.put(PRODUCT_ID, cache.generation(PRODUCT_ID), JSON, ETAG);
+
+    ResponseBytesCache.Entry entry = cache.get(PRODUCT_ID);
+    assertArrayEquals(JSON, entry.getJson());
+    assertArrayEquals(JSON, gunzip(entry.getGzippedJson()));
+    assertEquals(ETAG, entry.getEtag());
+
+    cache.invalidate(PRODUCT_ID);
+    assertNull(cache.get(PRODUCT_ID));
+  }
+
+  @Test
+  void dropsResponseInvalidatedWhileEncoding() {
+
+    long generation = cache.generation(PRODUCT_ID);
+    cache.invalidate(PRODUCT_ID);
+    cache.put(PRODUCT_ID, generation, JSON, ETAG);
+
+    assertNull(cache.get(PRODUCT_ID));
+  }
+
+  private static byte[] gunzip(byte[] bytes) throws IOException {
+    try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+      return in.readAllBytes();
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package se.magnus.microservices.composite.product;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import se.magnus.api.core.review.Review;
+
+/**
+ * The payload sizes behind WireFormatBenchmark in the benchmarks project, that only measures the CPU cost.
+ */
+class WireFormatTests {
+
+  private final ObjectMapper jsonMapper = new ObjectMapper();
+  private final ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+
+  @Test
+  void smileIsSmallerThanJson() throws IOException {
+
+    List<Review> reviews = IntStream.rangeClosed(1, 20)
+      .mapToObj(i -> new Review(1, i, "Author " + i, "Subject " + i, "Review content " + i, "review-6c4d9b-m3rtv/10.0.0.14:80"))
+      .collect(Collectors.toList());
+
+    byte[] json = jsonMapper.writeValueAsBytes(reviews);
+    byte[] smile = smileMapper.writeValueAsBytes(reviews);
+
+    // Smile refers back to property names that were already written, and writes numbers in binary
+    assertTrue(smile.length < json.length, "Smile: " + smile.length + " bytes, JSON: " + json.length + " bytes");
+
+    List<Review> decoded = smileMapper.readValue(smile, new TypeReference<List<Review>>() {});
+    assertEquals(20, decoded.size());
+    assertEquals("Review content 20", decoded.get(19).getContent());
+  }
+}
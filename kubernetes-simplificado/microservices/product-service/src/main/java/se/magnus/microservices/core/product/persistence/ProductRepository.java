@@ -1,8 +1,20 @@
 package se.magnus.microservices.core.product.persistence;
 
+import java.util.Collection;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 public interface ProductRepository extends ReactiveCrudRepository<ProductEntity, String> {
   Mono<ProductEntity> findByProductId(int productId);
+
+  Flux<ProductEntity> findByProductIdIn(Collection<Integer> productIds, Sort sort);
+
+  /**
+   * Deletes the product with a single deleteMany, without reading it first.
+   *
+   * @return the number of deleted products
+   */
+  Mono<Long> deleteByProductId(int productId);
 }
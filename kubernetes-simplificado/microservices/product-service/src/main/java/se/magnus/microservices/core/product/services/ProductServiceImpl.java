@@ -2,13 +2,32 @@ package se.magnus.microservices.core.product.services;
 
 import static java.util.logging.Level.FINE;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.core.product.ProductService;
@@ -16,6 +35,8 @@ import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.api.exceptions.NotFoundException;
 import se.magnus.microservices.core.product.persistence.ProductEntity;
 import se.magnus.microservices.core.product.persistence.ProductRepository;
+import se.magnus.util.http.ConditionalGet;
+import se.magnus.util.http.RequestParameters;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -29,11 +50,23 @@ public class ProductServiceImpl implements ProductService {
 
   private final ProductMapper mapper;
 
+  private final ReactiveMongoOperations mongoTemplate;
+
+  private final int maxBulkSize;
+
   @Autowired
-  public ProductServiceImpl(ProductRepository repository, ProductMapper mapper, ServiceUtil serviceUtil) {
+  public ProductServiceImpl(
+    ProductRepository repository,
+    ReactiveMongoOperations mongoTemplate,
+    ProductMapper mapper,
+    ServiceUtil serviceUtil,
+    @Value("${app.maxBulkSize:100}") int maxBulkSize) {
+
     this.repository = repository;
+    this.mongoTemplate = mongoTemplate;
     this.mapper = mapper;
     this.serviceUtil = serviceUtil;
+    this.maxBulkSize = maxBulkSize;
   }
 
   @Override
@@ -54,6 +87,94 @@ public class ProductServiceImpl implements ProductService {
   return newEntity;
   }
 
+  /**
+   * Creates the products of a batch of events with a single unordered bulk insert.
+   *
+   * Products that already exist, e.g. of redelivered CREATE events, are skipped instead of failing the batch, the
+   * other products of the batch are still inserted.
+   *
+   * @param bodies The products to create
+   * @return the created products
+   */
+  public Flux<Product> createProducts(List<Product> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+    if (bodies.isEmpty()) {
+      return Flux.empty();
+    }
+
+    List<Document> documents = bodies.stream().map(body -> document(mapper.apiToEntity(body))).collect(Collectors.toList());
+    return mongoTemplate.getCollection(mongoTemplate.getCollectionName(ProductEntity.class))
+      .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+      .map(result -> Set.<Integer>of())
+      .onErrorResume(MongoBulkWriteException.class, ex -> duplicates(ex, bodies.size()))
+      .flatMapMany(duplicates -> Flux.range(0, bodies.size()).filter(i -> !duplicates.contains(i)).map(bodies::get));
+  }
+
+  // The indexes of the documents that failed on the unique index, any other write error fails the insert
+  private Mono<Set<Integer>> duplicates(MongoBulkWriteException ex, int batchSize) {
+    Set<Integer> duplicates = new HashSet<>();
+    for (BulkWriteError error : ex.getWriteErrors()) {
+      if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+        return Mono.error(ex);
+      }
+      duplicates.add(error.getIndex());
+    }
+    LOG.warn("createProducts: skips {} products of a batch of {} that already exist", duplicates.size(), batchSize);
+    return Mono.just(duplicates);
+  }
+
+  // A new document starts at version 0 like one created by save()
+  private Document document(ProductEntity entity) {
+    Document document = new Document();
+    mongoTemplate.getConverter().write(entity, document);
+    document.put("version", 0);
+    return document;
+  }
+
+  /**
+   * Creates or updates the products of a batch of events with a single bulk write of upserts on productId,
+   * so that redelivered or replayed CREATE events neither fail on the unique index nor are retried.
+   *
+   * @param bodies The products to create or update
+   */
+  public Mono<Void> upsertProducts(List<Product> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+
+    List<WriteModel<Document>> upserts = bodies.stream()
+      .map(body -> upsert(mapper.apiToEntity(body), Filters.eq("productId", body.getProductId())))
+      .collect(Collectors.toList());
+    if (upserts.isEmpty()) {
+      return Mono.empty();
+    }
+
+    return mongoTemplate.getCollection(mongoTemplate.getCollectionName(ProductEntity.class))
+      .flatMap(collection -> Mono.from(collection.bulkWrite(upserts)))
+      .doOnNext(result -> LOG.debug("upsertProducts: inserted {} and updated {} products", result.getUpserts().size(), result.getModifiedCount()))
+      .then();
+  }
+
+  // Sets all fields but the id and version, a new document starts at version 0 like one created by save() and an
+  // existing one keeps its version, so that a replay of the same event does not change the ETag
+  private WriteModel<Document> upsert(ProductEntity entity, Bson filter) {
+    Document fields = new Document();
+    mongoTemplate.getConverter().write(entity, fields);
+    fields.remove("_id");
+    fields.remove("version");
+    return new UpdateOneModel<>(filter,
+      new Document("$set", fields).append("$setOnInsert", new Document("version", 0)),
+      new UpdateOptions().upsert(true));
+  }
+
   @Override
   public Mono<Product> getProduct(int productId, int delay, int faultPercent) {
 
@@ -63,13 +184,30 @@ public class ProductServiceImpl implements ProductService {
 
     LOG.info("Will get product info for id={}", productId);
 
-   return repository.findByProductId(productId)
+   Mono<Product> product = repository.findByProductId(productId)
        .map(e -> throwErrorIfBadLuck(e, faultPercent))
        .delayElement(Duration.ofSeconds(delay))
        .switchIfEmpty(Mono.error(new NotFoundException("No product found for productId: " + productId)))
       .log(LOG.getName(), FINE)
       .map(e -> mapper.entityToApi(e))
        .map(e ->  setServiceAddress(e));
+
+    return ConditionalGet.ifNoneMatch(product, p -> ConditionalGet.etag(etagParts(p)));
+  }
+
+  @Override
+  public Flux<Product> getProducts(List<Integer> productIds) {
+
+    Set<Integer> ids = RequestParameters.validateProductIds(productIds, maxBulkSize);
+
+    LOG.info("Will get product info for {} ids: {}", ids.size(), ids);
+
+    Flux<Product> products = repository.findByProductIdIn(ids, Sort.by("productId"))
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e));
+
+    return ConditionalGet.ifNoneMatch(products, list -> ConditionalGet.etag(list.stream().map(p -> etagParts(p)).toArray()));
   }
 
   @Override
@@ -80,7 +218,16 @@ public class ProductServiceImpl implements ProductService {
     }
 
     LOG.debug("deleteProduct: tries to delete an entity with productId: {}", productId);
-    return repository.findByProductId(productId).log(LOG.getName(), FINE).map(e -> repository.delete(e)).flatMap(e -> e);
+    return repository.deleteByProductId(productId)
+      .log(LOG.getName(), FINE)
+      .doOnNext(count -> LOG.debug("deleteProduct: deleted {} entities with productId: {}", count, productId))
+      .then();
+  }
+
+  // A deleted and recreated product starts over at version 0 and a replayed create event overwrites a product
+  // in place without changing its version, both are told apart by the fields
+  private List<Object> etagParts(Product p) {
+    return Arrays.asList(p.getProductId(), p.getVersion(), p.getName(), p.getWeight());
   }
 
   private Product setServiceAddress(Product e) {
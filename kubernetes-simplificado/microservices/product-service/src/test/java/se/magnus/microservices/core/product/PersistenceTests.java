@@ -67,6 +67,12 @@ class PersistenceTests extends MongoDbTestBase {
     StepVerifier.create(repository.existsById(savedEntity.getId())).expectNext(false).verifyComplete();
   }
 
+  @Test
+  void deleteByProductId() {
+    StepVerifier.create(repository.deleteByProductId(savedEntity.getProductId())).expectNext(1L).verifyComplete();
+    StepVerifier.create(repository.existsById(savedEntity.getId())).expectNext(false).verifyComplete();
+  }
+
   @Test
   void getByProductId() {
 
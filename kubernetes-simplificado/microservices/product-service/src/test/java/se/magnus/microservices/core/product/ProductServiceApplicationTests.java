@@ -4,9 +4,11 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.util.List;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -14,11 +16,13 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import se.magnus.api.core.product.Product;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.microservices.core.product.persistence.ProductRepository;
+import se.magnus.microservices.core.product.services.ProductServiceImpl;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT)
 class ProductServiceApplicationTests extends MongoDbTestBase {
@@ -29,10 +33,17 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
   @Autowired
   private ProductRepository repository;
 
+  @Autowired
+  private ProductServiceImpl productService;
+
   @Autowired
   @Qualifier("messageProcessor")
   private Consumer<Event<Integer, Product>> messageProcessor;
 
+  @Autowired
+  @Qualifier("messageBatchProcessor")
+  private Consumer<List<Event<Integer, Product>>> messageBatchProcessor;
+
   @BeforeEach
   void setupDb() {
     repository.deleteAll().block();
@@ -55,6 +66,117 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
       .jsonPath("$.productId").isEqualTo(productId);
   }
 
+  @Test
+  void getProductAsSmile() {
+
+    int productId = 1;
+    MediaType applicationSmile = MediaType.parseMediaType("application/x-jackson-smile");
+
+    sendCreateProductEvent(productId);
+
+    Product product = client.get()
+      .uri("/product/" + productId)
+      .accept(applicationSmile)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(applicationSmile)
+      .expectBody(Product.class)
+      .returnResult().getResponseBody();
+
+    assertEquals(productId, product.getProductId());
+    assertEquals("Name " + productId, product.getName());
+  }
+
+  @Test
+  void getProductNotModified() {
+
+    int productId = 1;
+
+    sendCreateProductEvent(productId);
+
+    String etag = client.get()
+      .uri("/product/" + productId)
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().exists("ETag")
+      .returnResult(Product.class).getResponseHeaders().getETag();
+
+    client.get()
+      .uri("/product/" + productId)
+      .accept(APPLICATION_JSON)
+      .ifNoneMatch(etag)
+      .exchange()
+      .expectStatus().isEqualTo(NOT_MODIFIED)
+      .expectBody().isEmpty();
+
+    // Another product has another ETag
+    int otherProductId = 2;
+    sendCreateProductEvent(otherProductId);
+
+    client.get()
+      .uri("/product/" + otherProductId)
+      .accept(APPLICATION_JSON)
+      .ifNoneMatch(etag)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.productId").isEqualTo(otherProductId);
+  }
+
+  @Test
+  void getProductsByIds() {
+
+    sendCreateProductEvent(3);
+    sendCreateProductEvent(1);
+    sendCreateProductEvent(2);
+
+    client.get()
+      .uri("/product?productId=3,1,13")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_JSON)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(2)
+      .jsonPath("$[0].productId").isEqualTo(1)
+      .jsonPath("$[1].productId").isEqualTo(3);
+  }
+
+  @Test
+  void getProductsAsNdjson() {
+
+    sendCreateProductEvent(3);
+    sendCreateProductEvent(1);
+    sendCreateProductEvent(2);
+
+    List<Product> products = client.get()
+      .uri("/product?productId=3,1,13")
+      .accept(APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_NDJSON)
+      .expectHeader().doesNotExist("ETag")
+      .returnResult(Product.class).getResponseBody()
+      .collectList().block();
+
+    assertEquals(2, products.size());
+    assertEquals(1, products.get(0).getProductId());
+    assertEquals(3, products.get(1).getProductId());
+  }
+
+  @Test
+  void getProductsInvalidParameterNegativeValue() {
+
+    client.get()
+      .uri("/product?productId=1,-1")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(UNPROCESSABLE_ENTITY)
+      .expectBody()
+      .jsonPath("$.message").isEqualTo("Invalid productId: -1");
+  }
+
   @Test
   void duplicateError() {
 
@@ -87,6 +209,47 @@ class ProductServiceApplicationTests extends MongoDbTestBase {
     sendDeleteProductEvent(productId);
   }
 
+  @Test
+  void upsertReplayedProducts() {
+
+    Product product = new Product(1, "Name 1", 1, "SA");
+    productService.upsertProducts(List.of(product, new Product(2, "Name 2", 2, "SA"))).block();
+    productService.upsertProducts(List.of(product, new Product(2, "Name 2b", 2, "SA"))).block();
+
+    assertEquals(2, (long)repository.count().block());
+    assertEquals(0, (int)repository.findByProductId(1).block().getVersion());
+    assertEquals("Name 2b", repository.findByProductId(2).block().getName());
+  }
+
+  @Test
+  void processBatchOfEvents() {
+
+    messageBatchProcessor.accept(List.of(
+      new Event(CREATE, 1, new Product(1, "Name 1", 1, "SA")),
+      new Event(CREATE, 2, new Product(2, "Name 2", 2, "SA")),
+      new Event(DELETE, 1, null),
+      new Event(CREATE, 3, new Product(3, "Name 3", 3, "SA"))));
+
+    assertNull(repository.findByProductId(1).block());
+    assertNotNull(repository.findByProductId(2).block());
+    assertNotNull(repository.findByProductId(3).block());
+    assertEquals(2, (long)repository.count().block());
+  }
+
+  @Test
+  void processBatchWithExistingProduct() {
+
+    sendCreateProductEvent(1);
+
+    // A redelivered CREATE event does not fail the other events of the batch
+    messageBatchProcessor.accept(List.of(
+      new Event(CREATE, 1, new Product(1, "Name 1", 1, "SA")),
+      new Event(CREATE, 2, new Product(2, "Name 2", 2, "SA"))));
+
+    assertNotNull(repository.findByProductId(2).block());
+    assertEquals(2, (long)repository.count().block());
+  }
+
   @Test
   void getProductInvalidParameterString() {
 
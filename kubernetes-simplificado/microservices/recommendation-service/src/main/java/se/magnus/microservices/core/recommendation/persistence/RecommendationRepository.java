@@ -1,8 +1,23 @@
 package se.magnus.microservices.core.recommendation.persistence;
 
+import java.util.Collection;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 public interface RecommendationRepository extends ReactiveCrudRepository<RecommendationEntity, String> {
   Flux<RecommendationEntity> findByProductId(int productId);
+
+  Flux<RecommendationEntity> findByProductIdIn(Collection<Integer> productIds, Sort sort);
+
+  Flux<RecommendationEntity> findByProductIdAndRecommendationIdGreaterThan(int productId, int recommendationId, Pageable pageable);
+
+  /**
+   * Deletes the recommendations of a product with a single deleteMany, without reading them first.
+   *
+   * @return the number of deleted recommendations
+   */
+  Mono<Long> deleteByProductId(int productId);
 }
@@ -1,26 +1,41 @@
 package se.magnus.microservices.core.recommendation.services;
 
+import java.util.List;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import se.magnus.api.core.recommendation.Recommendation;
-import se.magnus.api.core.recommendation.RecommendationService;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.EventProcessingException;
+import se.magnus.util.messaging.EventBatches;
 
 @Configuration
 public class MessageProcessorConfig {
 
   private static final Logger LOG = LoggerFactory.getLogger(MessageProcessorConfig.class);
 
-  private final RecommendationService recommendationService;
+  private final RecommendationServiceImpl recommendationService;
+
+  private final int eventLanes;
+
+  private final boolean idempotentCreates;
 
   @Autowired
-  public MessageProcessorConfig(RecommendationService recommendationService) {
+  public MessageProcessorConfig(
+    RecommendationServiceImpl recommendationService,
+    @Value("${app.eventLanes:1}") int eventLanes,
+    @Value("${app.idempotentCreates:false}") boolean idempotentCreates) {
+
     this.recommendationService = recommendationService;
+    this.eventLanes = eventLanes;
+    this.idempotentCreates = idempotentCreates;
   }
 
   @Bean
@@ -34,7 +49,11 @@ public class MessageProcessorConfig {
         case CREATE:
           Recommendation recommendation = event.getData();
           LOG.info("Create recommendation with ID: {}/{}", recommendation.getProductId(), recommendation.getRecommendationId());
-          recommendationService.createRecommendation(recommendation).block();
+          if (idempotentCreates) {
+            recommendationService.upsertRecommendations(List.of(recommendation)).block();
+          } else {
+            recommendationService.createRecommendation(recommendation).block();
+          }
           break;
 
         case DELETE:
@@ -52,4 +71,48 @@ public class MessageProcessorConfig {
       LOG.info("Message processing done!");
     };
   }
+
+  /**
+   * Processes a batch of events as runs of events of the same type, in the order they were received, every run
+   * of CREATE events is written with a single bulk insert. Bound instead of messageProcessor by the
+   * batch_consumers profile.
+   *
+   * The events are spread over app.eventLanes lanes by their keys, the lanes are processed in parallel and the
+   * events within a lane one run after another, so events for the same product stay in order. The batch is
+   * acknowledged, or its offsets committed, once all of its lanes are done. If any lane fails, the batch fails
+   * once the other lanes are done, see EventBatches.processInLanes, and is redelivered as a whole. The runs are
+   * idempotent, CREATE runs skip existing entities, see createRecommendations, and deletes of missing entities are no-ops.
+   *
+   * With app.idempotentCreates, CREATE events are written as upserts on the business key, see upsertRecommendations.
+   */
+  @Bean
+  public Consumer<List<Event<Integer, Recommendation>>> messageBatchProcessor() {
+    return events -> {
+      LOG.info("Process batch of {} messages...", events.size());
+
+      EventBatches.processInLanes(events, eventLanes, this::processRun).block();
+
+      LOG.info("Batch processing done!");
+    };
+  }
+
+  private Mono<Void> processRun(List<Event<Integer, Recommendation>> run) {
+    switch (run.get(0).getEventType()) {
+
+      case CREATE:
+        List<Recommendation> recommendations = run.stream().map(Event::getData).collect(Collectors.toList());
+        LOG.info("Create {} recommendations", recommendations.size());
+        return idempotentCreates ? recommendationService.upsertRecommendations(recommendations) : recommendationService.createRecommendations(recommendations).then();
+
+      case DELETE:
+        List<Integer> productIds = run.stream().map(Event::getKey).collect(Collectors.toList());
+        LOG.info("Delete recommendations of {} products with ProductIDs: {}", productIds.size(), productIds);
+        return Flux.fromIterable(productIds).concatMap(productId -> recommendationService.deleteRecommendations(productId)).then();
+
+      default:
+        String errorMessage = "Incorrect event type: " + run.get(0).getEventType() + ", expected a CREATE or DELETE event";
+        LOG.warn(errorMessage);
+        return Mono.error(new EventProcessingException(errorMessage));
+    }
+  }
 }
@@ -2,10 +2,29 @@ package se.magnus.microservices.core.recommendation.services;
 
 import static java.util.logging.Level.FINE;
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -14,6 +33,8 @@ import se.magnus.api.core.recommendation.RecommendationService;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationEntity;
 import se.magnus.microservices.core.recommendation.persistence.RecommendationRepository;
+import se.magnus.util.http.ConditionalGet;
+import se.magnus.util.http.RequestParameters;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -23,15 +44,31 @@ public class RecommendationServiceImpl implements RecommendationService {
 
   private final RecommendationRepository repository;
 
+  private final ReactiveMongoOperations mongoTemplate;
+
   private final RecommendationMapper mapper;
 
   private final ServiceUtil serviceUtil;
 
+  private final int maxBulkSize;
+
+  private final int maxPageSize;
+
   @Autowired
-  public RecommendationServiceImpl(RecommendationRepository repository, RecommendationMapper mapper, ServiceUtil serviceUtil) {
+  public RecommendationServiceImpl(
+    RecommendationRepository repository,
+    ReactiveMongoOperations mongoTemplate,
+    RecommendationMapper mapper,
+    ServiceUtil serviceUtil,
+    @Value("${app.maxBulkSize:100}") int maxBulkSize,
+    @Value("${app.maxPageSize:1000}") int maxPageSize) {
+
     this.repository = repository;
+    this.mongoTemplate = mongoTemplate;
     this.mapper = mapper;
     this.serviceUtil = serviceUtil;
+    this.maxBulkSize = maxBulkSize;
+    this.maxPageSize = maxPageSize;
   }
 
   @Override
@@ -52,6 +89,96 @@ public class RecommendationServiceImpl implements RecommendationService {
     return newEntity;
   }
 
+  /**
+   * Creates the recommendations of a batch of events with a single unordered bulk insert.
+   *
+   * Recommendations that already exist, e.g. of redelivered CREATE events, are skipped instead of failing the batch,
+   * the other recommendations of the batch are still inserted.
+   *
+   * @param bodies The recommendations to create
+   * @return the created recommendations
+   */
+  public Flux<Recommendation> createRecommendations(List<Recommendation> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+    if (bodies.isEmpty()) {
+      return Flux.empty();
+    }
+
+    List<Document> documents = mapper.apiListToEntityList(bodies).stream().map(this::document).collect(Collectors.toList());
+    return mongoTemplate.getCollection(mongoTemplate.getCollectionName(RecommendationEntity.class))
+      .flatMap(collection -> Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false))))
+      .map(result -> Set.<Integer>of())
+      .onErrorResume(MongoBulkWriteException.class, ex -> duplicates(ex, bodies.size()))
+      .flatMapMany(duplicates -> Flux.range(0, bodies.size()).filter(i -> !duplicates.contains(i)).map(bodies::get));
+  }
+
+  // The indexes of the documents that failed on the unique index, any other write error fails the insert
+  private Mono<Set<Integer>> duplicates(MongoBulkWriteException ex, int batchSize) {
+    Set<Integer> duplicates = new HashSet<>();
+    for (BulkWriteError error : ex.getWriteErrors()) {
+      if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+        return Mono.error(ex);
+      }
+      duplicates.add(error.getIndex());
+    }
+    LOG.warn("createRecommendations: skips {} recommendations of a batch of {} that already exist", duplicates.size(), batchSize);
+    return Mono.just(duplicates);
+  }
+
+  // A new document starts at version 0 like one created by save()
+  private Document document(RecommendationEntity entity) {
+    Document document = new Document();
+    mongoTemplate.getConverter().write(entity, document);
+    document.put("version", 0);
+    return document;
+  }
+
+  /**
+   * Creates or updates the recommendations of a batch of events with a single bulk write of upserts on productId
+   * and recommendationId, so that redelivered or replayed CREATE events neither fail on the unique index nor are
+   * retried.
+   *
+   * @param bodies The recommendations to create or update
+   */
+  public Mono<Void> upsertRecommendations(List<Recommendation> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+
+    List<WriteModel<Document>> upserts = bodies.stream()
+      .map(body -> upsert(mapper.apiToEntity(body),
+        Filters.and(Filters.eq("productId", body.getProductId()), Filters.eq("recommendationId", body.getRecommendationId()))))
+      .collect(Collectors.toList());
+    if (upserts.isEmpty()) {
+      return Mono.empty();
+    }
+
+    return mongoTemplate.getCollection(mongoTemplate.getCollectionName(RecommendationEntity.class))
+      .flatMap(collection -> Mono.from(collection.bulkWrite(upserts)))
+      .doOnNext(result -> LOG.debug("upsertRecommendations: inserted {} and updated {} recommendations", result.getUpserts().size(), result.getModifiedCount()))
+      .then();
+  }
+
+  // Sets all fields but the id and version, a new document starts at version 0 like one created by save() and an
+  // existing one keeps its version, so that a replay of the same event does not change the ETag
+  private WriteModel<Document> upsert(RecommendationEntity entity, Bson filter) {
+    Document fields = new Document();
+    mongoTemplate.getConverter().write(entity, fields);
+    fields.remove("_id");
+    fields.remove("version");
+    return new UpdateOneModel<>(filter,
+      new Document("$set", fields).append("$setOnInsert", new Document("version", 0)),
+      new UpdateOptions().upsert(true));
+  }
+
   @Override
   public Flux<Recommendation> getRecommendations(int productId) {
 
@@ -67,6 +194,51 @@ public class RecommendationServiceImpl implements RecommendationService {
       .map(e -> setServiceAddress(e));
   }
 
+  @Override
+  public Flux<Recommendation> getRecommendations(List<Integer> productIds, Integer limit, Integer cursor) {
+    return ConditionalGet.ifNoneMatch(findRecommendations(productIds, limit, cursor), list -> ConditionalGet.etag(list.stream().map(r -> etagParts(r)).toArray()));
+  }
+
+  // A deleted and recreated recommendation starts over at version 0 and a replayed create event overwrites a
+  // recommendation in place without changing its version, both are told apart by the fields
+  private List<Object> etagParts(Recommendation r) {
+    return Arrays.asList(r.getProductId(), r.getRecommendationId(), r.getVersion(), r.getAuthor(), r.getRate(), r.getContent());
+  }
+
+  private Flux<Recommendation> findRecommendations(List<Integer> productIds, Integer limit, Integer cursor) {
+
+    Set<Integer> ids = RequestParameters.validateProductIds(productIds, maxBulkSize);
+
+    if (limit != null || cursor != null) {
+      int pageSize = RequestParameters.validateLimit(ids, limit, maxPageSize);
+      return getRecommendationsPage(ids.iterator().next(), pageSize, cursor);
+    }
+
+    if (ids.size() == 1) {
+      return getRecommendations(ids.iterator().next());
+    }
+
+    LOG.info("Will get recommendations for {} products with ids: {}", ids.size(), ids);
+
+    return repository.findByProductIdIn(ids, Sort.by("productId", "recommendationId"))
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e));
+  }
+
+  private Flux<Recommendation> getRecommendationsPage(int productId, int limit, Integer cursor) {
+
+    LOG.info("Will get max {} recommendations after recommendationId {} for product with id={}", limit, cursor, productId);
+
+    // Keyset paging, served by the prod-rec-id index on productId and recommendationId
+    int afterRecommendationId = cursor == null ? Integer.MIN_VALUE : cursor;
+    return repository.findByProductIdAndRecommendationIdGreaterThan(
+        productId, afterRecommendationId, PageRequest.of(0, limit, Sort.by("recommendationId")))
+      .log(LOG.getName(), FINE)
+      .map(e -> mapper.entityToApi(e))
+      .map(e -> setServiceAddress(e));
+  }
+
   @Override
   public Mono<Void> deleteRecommendations(int productId) {
 
@@ -75,7 +247,10 @@ public class RecommendationServiceImpl implements RecommendationService {
     }
 
     LOG.debug("deleteRecommendations: tries to delete recommendations for the product with productId: {}", productId);
-    return repository.deleteAll(repository.findByProductId(productId));
+    return repository.deleteByProductId(productId)
+      .log(LOG.getName(), FINE)
+      .doOnNext(count -> LOG.debug("deleteRecommendations: deleted {} recommendations for the product with productId: {}", count, productId))
+      .then();
   }
 
   private Recommendation setServiceAddress(Recommendation e) {
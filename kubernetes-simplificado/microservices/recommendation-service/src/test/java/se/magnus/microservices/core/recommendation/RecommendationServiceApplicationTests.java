@@ -55,6 +55,50 @@ class RecommendationServiceApplicationTests extends MongoDbTestBase {
         .jsonPath("$[2].recommendationId").isEqualTo(3);
   }
 
+  @Test
+  void getRecommendationsByProductIds() {
+
+    sendCreateRecommendationEvent(2, 1);
+    sendCreateRecommendationEvent(1, 2);
+    sendCreateRecommendationEvent(1, 1);
+    sendCreateRecommendationEvent(3, 1);
+
+    getAndVerifyRecommendationsByProductId("?productId=2,1", OK)
+        .jsonPath("$.length()").isEqualTo(3)
+        .jsonPath("$[0].productId").isEqualTo(1)
+        .jsonPath("$[0].recommendationId").isEqualTo(1)
+        .jsonPath("$[1].productId").isEqualTo(1)
+        .jsonPath("$[1].recommendationId").isEqualTo(2)
+        .jsonPath("$[2].productId").isEqualTo(2);
+  }
+
+  @Test
+  void getRecommendationsPage() {
+
+    sendCreateRecommendationEvent(1, 3);
+    sendCreateRecommendationEvent(1, 1);
+    sendCreateRecommendationEvent(1, 2);
+
+    getAndVerifyRecommendationsByProductId("?productId=1&limit=2", OK)
+        .jsonPath("$.length()").isEqualTo(2)
+        .jsonPath("$[0].recommendationId").isEqualTo(1)
+        .jsonPath("$[1].recommendationId").isEqualTo(2);
+
+    getAndVerifyRecommendationsByProductId("?productId=1&limit=2&cursor=2", OK)
+        .jsonPath("$.length()").isEqualTo(1)
+        .jsonPath("$[0].recommendationId").isEqualTo(3);
+  }
+
+  @Test
+  void getRecommendationsPageInvalidParameter() {
+
+    getAndVerifyRecommendationsByProductId("?productId=1&limit=0", UNPROCESSABLE_ENTITY)
+        .jsonPath("$.message").isEqualTo("Invalid limit: 0, must be between 1 and 1000");
+
+    getAndVerifyRecommendationsByProductId("?productId=1,2&limit=1", UNPROCESSABLE_ENTITY)
+        .jsonPath("$.message").isEqualTo("limit and cursor can only be used with a single productId");
+  }
+
   @Test
   void duplicateError() {
 
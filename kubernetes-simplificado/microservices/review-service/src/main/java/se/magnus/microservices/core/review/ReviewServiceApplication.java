@@ -1,5 +1,6 @@
 package se.magnus.microservices.core.review;
 
+import java.util.Optional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +13,7 @@ import org.springframework.context.annotation.ComponentScan;
 import reactor.core.publisher.Hooks;
 import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
+import se.magnus.util.reactor.VirtualThreadSchedulers;
 
 @SpringBootApplication
 @ComponentScan("se.magnus")
@@ -21,18 +23,33 @@ public class ReviewServiceApplication {
 
   private final Integer threadPoolSize;
   private final Integer taskQueueSize;
+  private final boolean virtualThreads;
+  private final Integer connectionPoolSize;
 
   @Autowired
   public ReviewServiceApplication(
     @Value("${app.threadPoolSize:10}") Integer threadPoolSize,
-      @Value("${app.taskQueueSize:100}")  Integer taskQueueSize
+      @Value("${app.taskQueueSize:100}")  Integer taskQueueSize,
+    @Value("${app.virtualThreads.enabled:false}") boolean virtualThreads,
+    @Value("${spring.datasource.hikari.maximum-pool-size:10}") Integer connectionPoolSize
   ) {
     this.threadPoolSize = threadPoolSize;
     this.taskQueueSize = taskQueueSize;
+    this.virtualThreads = virtualThreads;
+    this.connectionPoolSize = connectionPoolSize;
   }
 
   @Bean
   public Scheduler jdbcScheduler() {
+    if (virtualThreads) {
+      // No more tasks than database connections run at the same time, the rest wait on their virtual threads
+      Optional<Scheduler> scheduler = VirtualThreadSchedulers.newVirtualThreadScheduler("jdbc-pool", connectionPoolSize);
+      if (scheduler.isPresent()) {
+        LOG.info("Creates a jdbcScheduler with virtual threads, max concurrency = {}", connectionPoolSize);
+        return scheduler.get();
+      }
+    }
+
     LOG.info("Creates a jdbcScheduler with thread pool size = {}", threadPoolSize);
     return Schedulers.newBoundedElastic(threadPoolSize, taskQueueSize, "jdbc-pool");
   }
@@ -1,11 +1,33 @@
 package se.magnus.microservices.core.review.persistence;
 
+import java.util.Collection;
 import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
 public interface ReviewRepository extends CrudRepository<ReviewEntity, Integer> {
 
   @Transactional(readOnly = true)
   List<ReviewEntity> findByProductId(int productId);
+
+  @Transactional(readOnly = true)
+  List<ReviewEntity> findByProductIdIn(Collection<Integer> productIds, Sort sort);
+
+  @Transactional(readOnly = true)
+  List<ReviewEntity> findByProductIdAndReviewIdGreaterThan(int productId, int reviewId, Pageable pageable);
+
+  /**
+   * Deletes the reviews of a product with a single DELETE statement, without loading them first.
+   *
+   * @return the number of deleted reviews
+   */
+  @Transactional
+  @Modifying
+  @Query("DELETE FROM ReviewEntity r WHERE r.productId = :productId")
+  int deleteByProductId(@Param("productId") int productId);
 }
@@ -2,21 +2,42 @@ package se.magnus.microservices.core.review.services;
 
 import static java.util.logging.Level.FINE;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.core.review.ReviewService;
+import se.magnus.api.exceptions.DeadlineExceededException;
 import se.magnus.api.exceptions.InvalidInputException;
 import se.magnus.microservices.core.review.persistence.ReviewEntity;
 import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.util.http.ConditionalGet;
+import se.magnus.util.http.Deadline;
+import se.magnus.util.http.RequestParameters;
 import se.magnus.util.http.ServiceUtil;
 
 @RestController
@@ -24,6 +45,8 @@ public class ReviewServiceImpl implements ReviewService {
 
   private static final Logger LOG = LoggerFactory.getLogger(ReviewServiceImpl.class);
 
+  private static final int UPSERT_RETRIES = 3;
+
   private final ReviewRepository repository;
 
   private final ReviewMapper mapper;
@@ -32,12 +55,29 @@ public class ReviewServiceImpl implements ReviewService {
 
   private final Scheduler jdbcScheduler;
 
+  private final PlatformTransactionManager transactionManager;
+
+  private final int maxBulkSize;
+
+  private final int maxPageSize;
+
   @Autowired
-  public ReviewServiceImpl(@Qualifier("jdbcScheduler") Scheduler jdbcScheduler, ReviewRepository repository, ReviewMapper mapper, ServiceUtil serviceUtil) {
+  public ReviewServiceImpl(
+    @Qualifier("jdbcScheduler") Scheduler jdbcScheduler,
+    PlatformTransactionManager transactionManager,
+    ReviewRepository repository,
+    ReviewMapper mapper,
+    ServiceUtil serviceUtil,
+    @Value("${app.maxBulkSize:100}") int maxBulkSize,
+    @Value("${app.maxPageSize:1000}") int maxPageSize) {
+
     this.jdbcScheduler = jdbcScheduler;
+    this.transactionManager = transactionManager;
     this.repository = repository;
     this.mapper = mapper;
     this.serviceUtil = serviceUtil;
+    this.maxBulkSize = maxBulkSize;
+    this.maxPageSize = maxPageSize;
   }
 
   @Override
@@ -63,6 +103,117 @@ public class ReviewServiceImpl implements ReviewService {
     }
   }
 
+  /**
+   * Creates the reviews of a batch of events in one transaction, the inserts are sent as JDBC batches
+   * of spring.jpa.properties.hibernate.jdbc.batch_size statements.
+   *
+   * If the batch fails on the unique index, e.g. on redelivered CREATE events, the transaction is rolled back and
+   * the reviews are created one by one instead, the reviews that already exist are skipped.
+   *
+   * @param bodies The reviews to create
+   * @return the created reviews
+   */
+  public Flux<Review> createReviews(List<Review> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+
+    return Mono.fromCallable(() -> internalCreateReviews(bodies))
+      .flatMapMany(Flux::fromIterable)
+      .subscribeOn(jdbcScheduler);
+  }
+
+  private List<Review> internalCreateReviews(List<Review> bodies) {
+    try {
+      List<ReviewEntity> newEntities = new ArrayList<>();
+      repository.saveAll(mapper.apiListToEntityList(bodies)).forEach(newEntities::add);
+
+      LOG.debug("createReviews: created {} review entities", newEntities.size());
+      return mapper.entityListToApiList(newEntities);
+
+    } catch (DataIntegrityViolationException dive) {
+      LOG.warn("createReviews: a batch of {} reviews failed on the unique index, creates them one by one", bodies.size());
+      return internalCreateReviewsOneByOne(bodies);
+    }
+  }
+
+  private List<Review> internalCreateReviewsOneByOne(List<Review> bodies) {
+    List<Review> created = new ArrayList<>();
+    for (Review body : bodies) {
+      try {
+        created.add(mapper.entityToApi(repository.save(mapper.apiToEntity(body))));
+      } catch (DataIntegrityViolationException dive) {
+        LOG.warn("createReviews: skips review {}/{} that already exists", body.getProductId(), body.getReviewId());
+      }
+    }
+    return created;
+  }
+
+  /**
+   * Creates or updates the reviews of a batch of events on productId and reviewId, so that redelivered or replayed
+   * CREATE events neither fail on the reviews_unique_idx index nor are retried.
+   *
+   * The existing reviews of the products are read with one query and the new and changed reviews are written in the
+   * same transaction as JDBC batches, instead of an INSERT ... ON DUPLICATE KEY UPDATE that would bypass the id
+   * generator of ReviewEntity. An existing review is updated in place through dirty checking, which increments its
+   * version only if a field changed.
+   *
+   * A concurrent upsert can insert or update a review between the read and the write, the unique index or the
+   * version of the review then rejects the write. The transaction is rolled back and retried, and finds the review
+   * as an existing one.
+   *
+   * @param bodies The reviews to create or update
+   */
+  public Mono<Void> upsertReviews(List<Review> bodies) {
+
+    bodies.forEach(body -> {
+      if (body.getProductId() < 1) {
+        throw new InvalidInputException("Invalid productId: " + body.getProductId());
+      }
+    });
+
+    return Mono.fromRunnable(() -> internalUpsertReviews(bodies))
+      .subscribeOn(jdbcScheduler)
+      .retryWhen(Retry.max(UPSERT_RETRIES)
+        .filter(e -> e instanceof DataIntegrityViolationException || e instanceof OptimisticLockingFailureException)
+        .doBeforeRetry(signal -> LOG.debug("upsertReviews: raced with a concurrent upsert, retries: {}", signal.failure().toString()))
+        .onRetryExhaustedThrow((spec, signal) -> signal.failure()))
+      .then();
+  }
+
+  private void internalUpsertReviews(List<Review> bodies) {
+
+    new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+      Set<Integer> productIds = bodies.stream().map(Review::getProductId).collect(Collectors.toSet());
+
+      Map<List<Integer>, ReviewEntity> entities = new HashMap<>();
+      repository.findByProductIdIn(productIds, Sort.unsorted())
+        .forEach(e -> entities.put(List.of(e.getProductId(), e.getReviewId()), e));
+
+      // Later events for the same review win, as if they were applied one after another
+      Map<List<Integer>, ReviewEntity> upserts = new LinkedHashMap<>();
+      for (Review body : bodies) {
+        List<Integer> key = List.of(body.getProductId(), body.getReviewId());
+        ReviewEntity entity = entities.get(key);
+        if (entity == null) {
+          entity = mapper.apiToEntity(body);
+          entities.put(key, entity);
+        } else {
+          entity.setAuthor(body.getAuthor());
+          entity.setSubject(body.getSubject());
+          entity.setContent(body.getContent());
+        }
+        upserts.put(key, entity);
+      }
+
+      repository.saveAll(upserts.values());
+      LOG.debug("upsertReviews: upserted {} review entities", upserts.size());
+    });
+  }
+
   @Override
   public Flux<Review> getReviews(int productId) {
 
@@ -72,10 +223,9 @@ public class ReviewServiceImpl implements ReviewService {
 
     LOG.info("Will get reviews for product with id={}", productId);
 
-    return Mono.fromCallable(() -> internalGetReviews(productId))
+    return withinDeadline(() -> internalGetReviews(productId))
       .flatMapMany(Flux::fromIterable)
-      .log(LOG.getName(), FINE)
-      .subscribeOn(jdbcScheduler);
+      .log(LOG.getName(), FINE);
   }
 
   private List<Review> internalGetReviews(int productId) {
@@ -89,6 +239,73 @@ public class ReviewServiceImpl implements ReviewService {
     return list;
   }
 
+  @Override
+  public Flux<Review> getReviews(List<Integer> productIds, Integer limit, Integer cursor) {
+    return ConditionalGet.ifNoneMatch(findReviews(productIds, limit, cursor), list -> ConditionalGet.etag(list.stream().map(r -> etagParts(r)).toArray()));
+  }
+
+  // A deleted and recreated review starts over at version 0 and is told apart by its fields, a review updated
+  // in place by a replayed create event gets the next version
+  private List<Object> etagParts(Review r) {
+    return Arrays.asList(r.getProductId(), r.getReviewId(), r.getVersion(), r.getAuthor(), r.getSubject(), r.getContent());
+  }
+
+  private Flux<Review> findReviews(List<Integer> productIds, Integer limit, Integer cursor) {
+
+    Set<Integer> ids = RequestParameters.validateProductIds(productIds, maxBulkSize);
+
+    if (limit != null || cursor != null) {
+      int pageSize = RequestParameters.validateLimit(ids, limit, maxPageSize);
+      int productId = ids.iterator().next();
+
+      LOG.info("Will get max {} reviews after reviewId {} for product with id={}", pageSize, cursor, productId);
+
+      return withinDeadline(() -> internalGetReviewsPage(productId, pageSize, cursor))
+        .flatMapMany(Flux::fromIterable)
+        .log(LOG.getName(), FINE);
+    }
+
+    if (ids.size() == 1) {
+      return getReviews(ids.iterator().next());
+    }
+
+    LOG.info("Will get reviews for {} products with ids: {}", ids.size(), ids);
+
+    return streamReviews(ids)
+      .log(LOG.getName(), FINE);
+  }
+
+  /**
+   * Emits the reviews of the products ordered by productId and reviewId, read in keyset pages of at most maxPageSize
+   * reviews, so that a streaming response can start before the last review is read.
+   *
+   * Each page is a query of its own on the jdbcScheduler, within the deadline of the request if it has one, and the
+   * connection is released between pages. The next page is only read when the reviews of the previous one are
+   * requested, so a slow client holds no connection while it reads.
+   */
+  private Flux<Review> streamReviews(Set<Integer> productIds) {
+    return Flux.fromIterable(new TreeSet<>(productIds))
+      .concatMap(productId -> withinDeadline(() -> internalGetReviewsPage(productId, maxPageSize, null))
+        .expand(page -> page.size() < maxPageSize
+          ? Mono.empty()
+          : withinDeadline(() -> internalGetReviewsPage(productId, maxPageSize, page.get(page.size() - 1).getReviewId())))
+        .concatMapIterable(page -> page, 1));
+  }
+
+  private List<Review> internalGetReviewsPage(int productId, int limit, Integer cursor) {
+
+    // Keyset paging, served by the reviews_unique_idx index on productId and reviewId
+    int afterReviewId = cursor == null ? Integer.MIN_VALUE : cursor;
+    List<ReviewEntity> entityList = repository.findByProductIdAndReviewIdGreaterThan(
+      productId, afterReviewId, PageRequest.of(0, limit, Sort.by("reviewId")));
+    List<Review> list = mapper.entityListToApiList(entityList);
+    list.forEach(e -> e.setServiceAddress(serviceUtil.getServiceAddress()));
+
+    LOG.debug("Response size: {}", list.size());
+
+    return list;
+  }
+
   @Override
   public Mono<Void> deleteReviews(int productId) {
 
@@ -99,10 +316,49 @@ public class ReviewServiceImpl implements ReviewService {
     return Mono.fromRunnable(() -> internalDeleteReviews(productId)).subscribeOn(jdbcScheduler).then();
   }
 
+  /**
+   * Runs a blocking query on the jdbcScheduler within the deadline of the request, if it has one.
+   *
+   * A query whose deadline passed while it was queued is never started, and a started query gets
+   * the remaining time as its transaction timeout, that the JDBC driver applies as a query timeout.
+   */
+  private <T> Mono<T> withinDeadline(Callable<T> query) {
+    return Mono.deferContextual(ctx -> {
+      Optional<Deadline> deadline = Deadline.current(ctx);
+      return Mono.fromCallable(() -> {
+        if (deadline.isEmpty()) {
+          return query.call();
+        }
+        if (deadline.get().isExpired()) {
+          throw new DeadlineExceededException("Deadline passed before the query was started");
+        }
+
+        return readOnlyTransaction(deadline).execute(status -> {
+          try {
+            return query.call();
+          } catch (Exception e) {
+            throw e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+          }
+        });
+      });
+    }).subscribeOn(jdbcScheduler);
+  }
+
+  /**
+   * @return a read-only transaction, with the remaining time of the deadline as its timeout if there is one
+   */
+  private TransactionTemplate readOnlyTransaction(Optional<Deadline> deadline) {
+    TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+    transaction.setReadOnly(true);
+    deadline.ifPresent(d -> transaction.setTimeout((int) Math.max(1, (d.remaining().toMillis() + 999) / 1000)));
+    return transaction;
+  }
+
   private void internalDeleteReviews(int productId) {
 
     LOG.debug("deleteReviews: tries to delete reviews for the product with productId: {}", productId);
 
-    repository.deleteAll(repository.findByProductId(productId));
+    int count = repository.deleteByProductId(productId);
+    LOG.debug("deleteReviews: deleted {} reviews for the product with productId: {}", count, productId);
   }
 }
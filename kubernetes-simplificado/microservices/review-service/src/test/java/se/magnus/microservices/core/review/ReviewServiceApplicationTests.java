@@ -4,9 +4,11 @@ import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.boot.test.context.SpringBootTest.WebEnvironment.RANDOM_PORT;
 import static org.springframework.http.HttpStatus.*;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
 import static se.magnus.api.event.Event.Type.CREATE;
 import static se.magnus.api.event.Event.Type.DELETE;
 
+import java.util.List;
 import java.util.function.Consumer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -15,14 +17,19 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.http.HttpStatus;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
 import se.magnus.api.core.review.Review;
 import se.magnus.api.event.Event;
 import se.magnus.api.exceptions.InvalidInputException;
+import se.magnus.microservices.core.review.persistence.ReviewEntity;
 import se.magnus.microservices.core.review.persistence.ReviewRepository;
+import se.magnus.microservices.core.review.services.ReviewServiceImpl;
+import se.magnus.util.http.Deadline;
 
 @SpringBootTest(webEnvironment = RANDOM_PORT, properties = {
   "spring.cloud.stream.defaultBinder=rabbit",
   "logging.level.se.magnus=DEBUG",
+  "app.maxPageSize=2",
   "spring.jpa.hibernate.ddl-auto=update"})
 class ReviewServiceApplicationTests extends MySqlTestBase {
 
@@ -32,10 +39,17 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
   @Autowired
   private ReviewRepository repository;
 
+  @Autowired
+  private ReviewServiceImpl reviewService;
+
   @Autowired
   @Qualifier("messageProcessor")
   private Consumer<Event<Integer, Review>> messageProcessor;
 
+  @Autowired
+  @Qualifier("messageBatchProcessor")
+  private Consumer<List<Event<Integer, Review>>> messageBatchProcessor;
+
   @BeforeEach
   void setupDb() {
     repository.deleteAll();
@@ -60,6 +74,80 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
         .jsonPath("$[2].reviewId").isEqualTo(3);
   }
 
+  @Test
+  void getReviewsByProductIds() {
+
+    sendCreateReviewEvent(2, 1);
+    sendCreateReviewEvent(1, 2);
+    sendCreateReviewEvent(1, 1);
+    sendCreateReviewEvent(3, 1);
+
+    getAndVerifyReviewsByProductId("?productId=2,1", OK)
+        .jsonPath("$.length()").isEqualTo(3)
+        .jsonPath("$[0].productId").isEqualTo(1)
+        .jsonPath("$[0].reviewId").isEqualTo(1)
+        .jsonPath("$[1].productId").isEqualTo(1)
+        .jsonPath("$[1].reviewId").isEqualTo(2)
+        .jsonPath("$[2].productId").isEqualTo(2);
+  }
+
+  @Test
+  void getReviewsAsNdjson() {
+
+    // Three reviews of product 1 are read in two pages of app.maxPageSize
+    sendCreateReviewEvent(2, 1);
+    sendCreateReviewEvent(1, 2);
+    sendCreateReviewEvent(1, 3);
+    sendCreateReviewEvent(1, 1);
+    sendCreateReviewEvent(3, 1);
+
+    List<Review> reviews = client.get()
+      .uri("/review?productId=2,1")
+      .accept(APPLICATION_NDJSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectHeader().contentType(APPLICATION_NDJSON)
+      .expectHeader().doesNotExist("ETag")
+      .returnResult(Review.class).getResponseBody()
+      .collectList().block();
+
+    assertEquals(4, reviews.size());
+    assertEquals(1, reviews.get(0).getProductId());
+    assertEquals(1, reviews.get(0).getReviewId());
+    assertEquals(1, reviews.get(1).getProductId());
+    assertEquals(2, reviews.get(1).getReviewId());
+    assertEquals(1, reviews.get(2).getProductId());
+    assertEquals(3, reviews.get(2).getReviewId());
+    assertEquals(2, reviews.get(3).getProductId());
+  }
+
+  @Test
+  void getReviewsPage() {
+
+    sendCreateReviewEvent(1, 3);
+    sendCreateReviewEvent(1, 1);
+    sendCreateReviewEvent(1, 2);
+
+    getAndVerifyReviewsByProductId("?productId=1&limit=2", OK)
+        .jsonPath("$.length()").isEqualTo(2)
+        .jsonPath("$[0].reviewId").isEqualTo(1)
+        .jsonPath("$[1].reviewId").isEqualTo(2);
+
+    getAndVerifyReviewsByProductId("?productId=1&limit=2&cursor=2", OK)
+        .jsonPath("$.length()").isEqualTo(1)
+        .jsonPath("$[0].reviewId").isEqualTo(3);
+  }
+
+  @Test
+  void getReviewsPageInvalidParameter() {
+
+    getAndVerifyReviewsByProductId("?productId=1&limit=0", UNPROCESSABLE_ENTITY)
+        .jsonPath("$.message").isEqualTo("Invalid limit: 0, must be between 1 and 1000");
+
+    getAndVerifyReviewsByProductId("?productId=1,2&limit=1", UNPROCESSABLE_ENTITY)
+        .jsonPath("$.message").isEqualTo("limit and cursor can only be used with a single productId");
+  }
+
   @Test
   void duplicateError() {
 
@@ -96,6 +184,82 @@ class ReviewServiceApplicationTests extends MySqlTestBase {
     sendDeleteReviewEvent(productId);
   }
 
+  @Test
+  void upsertReplayedReviews() {
+
+    Review review = new Review(1, 1, "Author 1", "Subject 1", "Content 1", "SA");
+    reviewService.upsertReviews(List.of(review, new Review(1, 2, "Author 2", "Subject 2", "Content 2", "SA"))).block();
+    reviewService.upsertReviews(List.of(review, new Review(1, 2, "Author 2", "Subject 2", "Content 2b", "SA"))).block();
+
+    List<ReviewEntity> entities = repository.findByProductId(1);
+    assertEquals(2, entities.size());
+    assertTrue(entities.stream().anyMatch(e -> e.getReviewId() == 2 && e.getContent().equals("Content 2b")));
+  }
+
+  @Test
+  void upsertSameReviewsConcurrently() {
+
+    List<Review> reviews = List.of(
+      new Review(1, 1, "Author 1", "Subject 1", "Content 1", "SA"),
+      new Review(1, 2, "Author 2", "Subject 2", "Content 2", "SA"));
+
+    // The upserts that lose the race on the unique index are retried as updates
+    Flux.range(0, 4).flatMap(i -> reviewService.upsertReviews(reviews)).then().block();
+
+    assertEquals(2, repository.findByProductId(1).size());
+  }
+
+  @Test
+  void processBatchOfEvents() {
+
+    messageBatchProcessor.accept(List.of(
+      new Event(CREATE, 1, new Review(1, 1, "Author 1", "Subject 1", "Content 1", "SA")),
+      new Event(CREATE, 1, new Review(1, 2, "Author 2", "Subject 2", "Content 2", "SA")),
+      new Event(CREATE, 2, new Review(2, 1, "Author 1", "Subject 1", "Content 1", "SA")),
+      new Event(DELETE, 2, null)));
+
+    assertEquals(2, repository.findByProductId(1).size());
+    assertEquals(0, repository.findByProductId(2).size());
+  }
+
+  @Test
+  void processBatchWithExistingReview() {
+
+    sendCreateReviewEvent(1, 1);
+
+    // A redelivered CREATE event does not fail the other events of the batch
+    messageBatchProcessor.accept(List.of(
+      new Event(CREATE, 1, new Review(1, 1, "Author 1", "Subject 1", "Content 1", "SA")),
+      new Event(CREATE, 1, new Review(1, 2, "Author 2", "Subject 2", "Content 2", "SA"))));
+
+    assertEquals(2, repository.findByProductId(1).size());
+  }
+
+  @Test
+  void getReviewsWithDeadline() {
+
+    int productId = 1;
+
+    sendCreateReviewEvent(productId, 1);
+
+    client.get()
+      .uri("/review?productId=" + productId)
+      .header(Deadline.HEADER, "5000")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(OK)
+      .expectBody()
+      .jsonPath("$.length()").isEqualTo(1);
+
+    // No budget left, the query is never started
+    client.get()
+      .uri("/review?productId=" + productId)
+      .header(Deadline.HEADER, "0")
+      .accept(APPLICATION_JSON)
+      .exchange()
+      .expectStatus().isEqualTo(GATEWAY_TIMEOUT);
+  }
+
   @Test
   void getReviewsMissingParameter() {
 
@@ -0,0 +1,62 @@
+package se.magnus.springcloud.gateway;
+
+import java.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+/**
+ * Sets the deadline of every routed request, as the remaining budget in milliseconds in the X-Request-Deadline-Ms
+ * header, see se.magnus.util.http.Deadline. A shorter budget sent by the client is kept.
+ *
+ * The budget is configured by app.deadline.timeout, defaults to 10s.
+ */
+@Component
+public class DeadlineFilter implements GlobalFilter, Ordered {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeadlineFilter.class);
+
+  public static final String HEADER = "X-Request-Deadline-Ms";
+
+  private final long timeoutMillis;
+
+  @Autowired
+  public DeadlineFilter(@Value("${app.deadline.timeout:10s}") Duration timeout) {
+    this.timeoutMillis = timeout.toMillis();
+    LOG.info("Deadline of routed requests: {}", timeout);
+  }
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+
+    long budget = Math.min(timeoutMillis, clientBudget(exchange.getRequest().getHeaders().getFirst(HEADER)));
+
+    ServerWebExchange withDeadline = exchange.mutate()
+      .request(request -> request.headers(headers -> headers.set(HEADER, String.valueOf(budget))))
+      .build();
+    return chain.filter(withDeadline);
+  }
+
+  @Override
+  public int getOrder() {
+    return Ordered.HIGHEST_PRECEDENCE;
+  }
+
+  private long clientBudget(String header) {
+    if (header == null) {
+      return Long.MAX_VALUE;
+    }
+    try {
+      return Math.max(0, Long.parseLong(header.trim()));
+    } catch (NumberFormatException e) {
+      return Long.MAX_VALUE;
+    }
+  }
+}
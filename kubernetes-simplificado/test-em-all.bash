@@ -199,15 +199,18 @@ function testCircuitBreaker() {
     # Verify that the circuit breaker is open
     assertEqual "OPEN" "$($EXEC curl -s http://localhost/actuator/health | jq -r .components.circuitBreakers.details.product.details.state)"
 
-    # Verify that the circuit breaker now is open by running the slow call again, verify it gets 200 back, i.e. fail fast works, and a response from the fallback method.
+    # Verify that the circuit breaker now is open by running the slow call again, verify it gets 200 back, i.e. fail fast works,
+    # and the last known good product from the fallback method, marked as stale.
     assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?delay=3 $AUTH -s"
-    assertEqual "Fallback product$PROD_ID_REVS_RECS" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "true" "$(echo "$RESPONSE" | jq -r .stale)"
 
     # Also, verify that the circuit breaker is open by running a normal call, verify it also gets 200 back and a response from the fallback method.
     assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS $AUTH -s"
-    assertEqual "Fallback product$PROD_ID_REVS_RECS" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+    assertEqual "true" "$(echo "$RESPONSE" | jq -r .stale)"
 
-    # Verify that a 404 (Not Found) error is returned for a non existing productId ($PROD_ID_NOT_FOUND) from the fallback method.
+    # Verify that a 404 (Not Found) error is returned for a productId ($PROD_ID_NOT_FOUND) that is not in the last known good store of the fallback method.
     assertCurl 404 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_NOT_FOUND $AUTH -s"
     assertEqual "Product Id: $PROD_ID_NOT_FOUND not found in fallback cache!" "$(echo $RESPONSE | jq -r .message)"
 
@@ -224,6 +227,7 @@ function testCircuitBreaker() {
     do
         assertCurl 200 "curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS $AUTH -s"
         assertEqual "product name C" "$(echo "$RESPONSE" | jq -r .name)"
+        assertEqual "false" "$(echo "$RESPONSE" | jq -r .stale)"
     done
 
     # Verify that the circuit breaker is in closed state again
@@ -285,6 +289,25 @@ assertEqual $PROD_ID_NO_REVS $(echo $RESPONSE | jq .productId)
 assertEqual 3 $(echo $RESPONSE | jq ".recommendations | length")
 assertEqual 0 $(echo $RESPONSE | jq ".reviews | length")
 
+# Verify that several products can be fetched in one request, in the requested order and without the unknown productId
+assertCurl 200 "curl $AUTH -k https://$HOST:$PORT/product-composite?productId=$PROD_ID_NO_REVS,$PROD_ID_REVS_RECS,$PROD_ID_NOT_FOUND -s"
+assertEqual 2 $(echo $RESPONSE | jq ". | length")
+assertEqual $PROD_ID_NO_REVS $(echo $RESPONSE | jq .[0].productId)
+assertEqual 0 $(echo $RESPONSE | jq ".[0].reviews | length")
+assertEqual $PROD_ID_REVS_RECS $(echo $RESPONSE | jq .[1].productId)
+assertEqual 3 $(echo $RESPONSE | jq ".[1].recommendations | length")
+
+# Verify that only the requested fields are returned
+assertCurl 200 "curl $AUTH -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS?fields=name,weight -s"
+assertEqual $PROD_ID_REVS_RECS $(echo $RESPONSE | jq .productId)
+assertEqual "product name C" "$(echo $RESPONSE | jq -r .name)"
+assertEqual null $(echo $RESPONSE | jq .recommendations)
+assertEqual null $(echo $RESPONSE | jq .reviews)
+
+# Verify that an unchanged composite product is not sent again to a client that has its ETag
+ETAG=$(curl -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS -H "Authorization: Bearer $ACCESS_TOKEN" -s -o /dev/null -D - | grep -i "^etag:" | cut -d' ' -f2- | tr -d '\r')
+assertCurl 304 "curl $AUTH -H 'If-None-Match: $ETAG' -k https://$HOST:$PORT/product-composite/$PROD_ID_REVS_RECS -s"
+
 # Verify that a 422 (Unprocessable Entity) error is returned for a productId that is out of range (-1)
 assertCurl 422 "curl $AUTH -k https://$HOST:$PORT/product-composite/-1 -s"
 assertEqual "\"Invalid productId: -1\"" "$(echo $RESPONSE | jq .message)"
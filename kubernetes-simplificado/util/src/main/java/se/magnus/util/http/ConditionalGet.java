@@ -0,0 +1,118 @@
+package se.magnus.util.http;
+
+import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.APPLICATION_NDJSON;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Function;
+import org.springframework.http.MediaType;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+/**
+ * Honors If-None-Match on reactive GET endpoints.
+ *
+ * The ETag of a response is computed from the ids, versions and fields of the entities it is built from,
+ * since a recreated entity starts over at version 0 and a replayed create event may overwrite an entity in place
+ * without changing its version. It is set on every response, and if it matches
+ * If-None-Match the response is a 304 Not Modified without a body.
+ * The ETags are weak since the same entities can be rendered as JSON or Smile.
+ *
+ * The exchange is looked up in the Reactor context, where it is put by {@link ConditionalGetConfig}.
+ */
+public final class ConditionalGet {
+
+  private ConditionalGet() {
+  }
+
+  /**
+   * @param body The response
+   * @param etag Computes the ETag of the response, see {@link #etag(Object...)}, a null ETag disables the check
+   * @return the response, or empty if it is not modified
+   */
+  public static <T> Mono<T> ifNoneMatch(Mono<T> body, Function<T, String> etag) {
+    return body.flatMap(value -> Mono.deferContextual(ctx -> isNotModified(ctx, etag.apply(value)) ? Mono.<T>empty() : Mono.just(value)));
+  }
+
+  /**
+   * The elements are collected before they are sent, to compute the ETag over all of them. Streaming responses,
+   * requested with an Accept header that prefers application/x-ndjson over application/json, are sent as the elements arrive and without an ETag.
+   *
+   * @param body The response
+   * @param etag Computes the ETag of the response, see {@link #etag(Object...)}
+   * @return the response, or empty if it is not modified
+   */
+  public static <T> Flux<T> ifNoneMatch(Flux<T> body, Function<List<T>, String> etag) {
+    return Flux.deferContextual(ctx -> isStreaming(ctx) ? body : body.collectList()
+      .flatMapMany(values -> isNotModified(ctx, etag.apply(values)) ? Flux.<T>empty() : Flux.fromIterable(values)));
+  }
+
+  /**
+   * @param parts Ids, versions and fields of the entities of a response
+   * @return a weak ETag based on the parts
+   */
+  public static String etag(Object... parts) {
+    StringBuilder sb = new StringBuilder();
+    for (Object part : parts) {
+      sb.append(part).append('/');
+    }
+    return "W/\"" + DigestUtils.md5DigestAsHex(sb.toString().getBytes(StandardCharsets.UTF_8)) + "\"";
+  }
+
+  private static boolean isStreaming(ContextView ctx) {
+    return ServerWebExchangeContextFilter.getExchange(ctx)
+      .map(exchange -> isStreaming(exchange.getRequest().getHeaders().getAccept()))
+      .orElse(false);
+  }
+
+  /**
+   * @param accept The media types of the Accept header, in the order they were given
+   * @return true if application/x-ndjson is acceptable and preferred over application/json, by the quality of the
+   *     most specific media range that matches each of them, or by the order of those ranges if the qualities are equal
+   */
+  static boolean isStreaming(List<MediaType> accept) {
+    int ndjson = mostSpecificMatch(accept, APPLICATION_NDJSON);
+    if (ndjson < 0 || accept.get(ndjson).getQualityValue() == 0) {
+      return false;
+    }
+
+    int json = mostSpecificMatch(accept, APPLICATION_JSON);
+    if (json < 0) {
+      return true;
+    }
+
+    int byQuality = Double.compare(accept.get(ndjson).getQualityValue(), accept.get(json).getQualityValue());
+    return byQuality > 0 || (byQuality == 0 && ndjson < json);
+  }
+
+  /**
+   * @return the index of the most specific media range in accept that includes the media type, or -1 if none does
+   */
+  private static int mostSpecificMatch(List<MediaType> accept, MediaType mediaType) {
+    int match = -1;
+    for (int i = 0; i < accept.size(); i++) {
+      MediaType range = accept.get(i);
+      if (range.includes(mediaType) && (match < 0 || specificity(range) > specificity(accept.get(match)))) {
+        match = i;
+      }
+    }
+    return match;
+  }
+
+  private static int specificity(MediaType range) {
+    return range.isWildcardType() ? 0 : range.isWildcardSubtype() ? 1 : 2;
+  }
+
+  private static boolean isNotModified(ContextView ctx, String etag) {
+    if (etag == null) {
+      return false;
+    }
+    return ServerWebExchangeContextFilter.getExchange(ctx)
+      .map(exchange -> exchange.checkNotModified(etag))
+      .orElse(false);
+  }
+}
@@ -0,0 +1,17 @@
+package se.magnus.util.http;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.filter.reactive.ServerWebExchangeContextFilter;
+
+/**
+ * Puts the exchange in the Reactor context of each request, used by {@link ConditionalGet}.
+ */
+@Configuration
+public class ConditionalGetConfig {
+
+  @Bean
+  public ServerWebExchangeContextFilter serverWebExchangeContextFilter() {
+    return new ServerWebExchangeContextFilter();
+  }
+}
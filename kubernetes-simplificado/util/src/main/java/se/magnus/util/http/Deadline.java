@@ -0,0 +1,69 @@
+package se.magnus.util.http;
+
+import java.time.Duration;
+import java.util.Optional;
+import reactor.util.context.ContextView;
+
+/**
+ * The point in time when the caller of a request stops waiting for the response.
+ *
+ * A deadline is passed between the services in the {@value #HEADER} header as the remaining budget in milliseconds,
+ * relative to when the request is sent, so that the services do not depend on synchronized clocks. The gateway sets
+ * it, every service reads it in the {@link DeadlineWebFilter} and passes what is left of it on to the services it calls.
+ * Within a service the deadline is kept in the Reactor context, see {@link #current(ContextView)}.
+ */
+public final class Deadline {
+
+  public static final String HEADER = "X-Request-Deadline-Ms";
+
+  private final long deadlineNanos;
+
+  private Deadline(long deadlineNanos) {
+    this.deadlineNanos = deadlineNanos;
+  }
+
+  public static Deadline after(Duration budget) {
+    return new Deadline(System.nanoTime() + budget.toNanos());
+  }
+
+  /**
+   * @param header Value of the {@value #HEADER} header, may be null
+   * @return the deadline, or empty if the header is missing or not a number
+   */
+  public static Optional<Deadline> fromHeader(String header) {
+    if (header == null) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(after(Duration.ofMillis(Math.max(0, Long.parseLong(header.trim())))));
+    } catch (NumberFormatException e) {
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * @return the deadline of the request being processed, or empty if it has none
+   */
+  public static Optional<Deadline> current(ContextView ctx) {
+    return ctx.getOrEmpty(Deadline.class);
+  }
+
+  public Duration remaining() {
+    return Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()));
+  }
+
+  public boolean isExpired() {
+    return deadlineNanos - System.nanoTime() <= 0;
+  }
+
+  public boolean isBefore(Deadline other) {
+    return deadlineNanos - other.deadlineNanos < 0;
+  }
+
+  /**
+   * @return the remaining budget, as the value of the {@value #HEADER} header
+   */
+  public String toHeader() {
+    return String.valueOf(remaining().toMillis());
+  }
+}
@@ -0,0 +1,57 @@
+package se.magnus.util.http;
+
+import static org.springframework.http.HttpStatus.GATEWAY_TIMEOUT;
+
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reads the {@link Deadline} of a request and cancels the processing of the request once it has passed.
+ *
+ * The cancellation reaches the reactive repositories, that stop their queries, and work that is queued on a scheduler,
+ * that is never started. If the response is not yet committed it is a 504 Gateway Timeout. Requests without a
+ * deadline are not affected.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class DeadlineWebFilter implements WebFilter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(DeadlineWebFilter.class);
+
+  @Override
+  public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+    Optional<Deadline> deadline = Deadline.fromHeader(exchange.getRequest().getHeaders().getFirst(Deadline.HEADER));
+    if (deadline.isEmpty()) {
+      return chain.filter(exchange);
+    }
+
+    if (deadline.get().isExpired()) {
+      LOG.debug("Deadline of {} {} passed before it was processed", exchange.getRequest().getMethod(), exchange.getRequest().getPath());
+      return deadlineExceeded(exchange);
+    }
+
+    return chain.filter(exchange)
+      .timeout(deadline.get().remaining(), Mono.defer(() -> {
+        LOG.debug("Deadline of {} {} passed, cancels it", exchange.getRequest().getMethod(), exchange.getRequest().getPath());
+        return deadlineExceeded(exchange);
+      }))
+      .contextWrite(ctx -> ctx.put(Deadline.class, deadline.get()));
+  }
+
+  private Mono<Void> deadlineExceeded(ServerWebExchange exchange) {
+    if (exchange.getResponse().isCommitted()) {
+      return Mono.empty();
+    }
+    exchange.getResponse().setStatusCode(GATEWAY_TIMEOUT);
+    return exchange.getResponse().setComplete();
+  }
+}
@@ -0,0 +1,66 @@
+package se.magnus.util.http;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import se.magnus.api.exceptions.InvalidInputException;
+
+/**
+ * Validates the query parameters of the multi-get endpoints of the core services.
+ */
+public final class RequestParameters {
+
+  private RequestParameters() {
+  }
+
+  /**
+   * @param productIds The productId query parameter
+   * @param maxBulkSize The max number of distinct productIds
+   * @return the distinct productIds, in the order they were given
+   * @throws InvalidInputException if no productId is given, any of them is less than 1 or there are too many of them
+   */
+  public static Set<Integer> validateProductIds(List<Integer> productIds, int maxBulkSize) {
+
+    if (productIds == null || productIds.isEmpty()) {
+      throw new InvalidInputException("No productId specified");
+    }
+
+    Set<Integer> ids = new LinkedHashSet<>();
+    for (Integer productId : productIds) {
+      if (productId == null || productId < 1) {
+        throw new InvalidInputException("Invalid productId: " + productId);
+      }
+      ids.add(productId);
+    }
+
+    if (ids.size() > maxBulkSize) {
+      throw new InvalidInputException("Too many productIds: " + ids.size() + ", max is " + maxBulkSize);
+    }
+
+    return ids;
+  }
+
+  /**
+   * @param productIds The validated productIds, paging is only supported for a single product
+   * @param limit The limit query parameter, may be null
+   * @param maxPageSize The max page size, also used if no limit is given
+   * @return the page size
+   * @throws InvalidInputException if there is more than one productId or the limit is out of range
+   */
+  public static int validateLimit(Set<Integer> productIds, Integer limit, int maxPageSize) {
+
+    if (productIds.size() > 1) {
+      throw new InvalidInputException("limit and cursor can only be used with a single productId");
+    }
+
+    if (limit == null) {
+      return maxPageSize;
+    }
+
+    if (limit < 1 || limit > maxPageSize) {
+      throw new InvalidInputException("Invalid limit: " + limit + ", must be between 1 and " + maxPageSize);
+    }
+
+    return limit;
+  }
+}
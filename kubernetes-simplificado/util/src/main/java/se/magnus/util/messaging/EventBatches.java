@@ -0,0 +1,106 @@
+package se.magnus.util.messaging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import se.magnus.api.event.Event;
+import se.magnus.api.exceptions.EventProcessingException;
+
+/**
+ * Helpers for the batch message processors of the core services.
+ */
+public final class EventBatches {
+
+  private EventBatches() {
+  }
+
+  /**
+   * Splits a batch of events into runs of consecutive events of the same type, in the order they were received.
+   *
+   * Every run can be written with a single bulk operation, and processing the runs one after another keeps the
+   * order of the events for every key, e.g. a DELETE is never applied before a CREATE that was received before it.
+   *
+   * @param events The events of a batch, in the order they were received
+   * @return the runs of events of the same type
+   */
+  public static <K, T> List<List<Event<K, T>>> runsOfSameType(List<Event<K, T>> events) {
+
+    List<List<Event<K, T>>> runs = new ArrayList<>();
+    List<Event<K, T>> run = null;
+
+    for (Event<K, T> event : events) {
+      if (run == null || !Objects.equals(run.get(0).getEventType(), event.getEventType())) {
+        run = new ArrayList<>();
+        runs.add(run);
+      }
+      run.add(event);
+    }
+
+    return runs;
+  }
+
+  /**
+   * Spreads a batch of events over a number of lanes by their keys, so that all events with the same key end
+   * up in the same lane, in the order they were received.
+   *
+   * The lanes can be processed in parallel, each lane one event, or run, after another, without changing the
+   * order of the events for any key.
+   *
+   * @param events The events of a batch, in the order they were received
+   * @param lanes The max number of lanes
+   * @return the non-empty lanes
+   */
+  public static <K, T> List<List<Event<K, T>>> lanesByKey(List<Event<K, T>> events, int lanes) {
+
+    if (lanes < 1) {
+      throw new IllegalArgumentException("Invalid number of lanes: " + lanes);
+    }
+
+    List<List<Event<K, T>>> byLane = new ArrayList<>(lanes);
+    for (int i = 0; i < lanes; i++) {
+      byLane.add(new ArrayList<>());
+    }
+    for (Event<K, T> event : events) {
+      byLane.get(Math.floorMod(Objects.hashCode(event.getKey()), lanes)).add(event);
+    }
+
+    byLane.removeIf(List::isEmpty);
+    return byLane;
+  }
+
+  /**
+   * Processes a batch of events in lanes by their keys, see {@link #lanesByKey}, the lanes in parallel and every lane
+   * as runs of events of the same type, see {@link #runsOfSameType}, one run after another.
+   *
+   * A failed lane does not stop the other lanes. Once all lanes are done the batch fails with one
+   * {@link EventProcessingException} for all failed lanes, caused by the first failure with the others suppressed.
+   * A failed batch is redelivered as a whole, so the runs must be idempotent, e.g. skip entities that already exist.
+   *
+   * @param events The events of a batch, in the order they were received
+   * @param lanes The max number of lanes
+   * @param processRun Processes a run of events of the same type
+   * @return completes when all lanes are done
+   */
+  public static <K, T> Mono<Void> processInLanes(
+    List<Event<K, T>> events, int lanes, Function<List<Event<K, T>>, Mono<Void>> processRun) {
+
+    List<List<Event<K, T>>> byLane = lanesByKey(events, lanes);
+    return Flux.fromIterable(byLane)
+      .flatMapDelayError(lane -> Flux.fromIterable(runsOfSameType(lane)).concatMap(processRun), Math.max(1, byLane.size()), 1)
+      .then()
+      .onErrorMap(error -> batchFailed(error, byLane.size(), events.size()));
+  }
+
+  private static EventProcessingException batchFailed(Throwable error, int lanes, int batchSize) {
+    List<Throwable> failures = Exceptions.unwrapMultiple(error);
+    EventProcessingException failed = new EventProcessingException(
+      failures.size() + " of " + lanes + " lanes of a batch of " + batchSize + " events failed, first: " + failures.get(0),
+      failures.get(0));
+    failures.stream().skip(1).forEach(failed::addSuppressed);
+    return failed;
+  }
+}
@@ -0,0 +1,84 @@
+package se.magnus.util.reactor;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Creates schedulers that run each task on a new virtual thread.
+ *
+ * Virtual threads require Java 21, the code is compiled for Java 17 and looks them up by reflection.
+ * On older JVMs no scheduler is created and the caller is expected to fall back to a bounded elastic scheduler.
+ */
+public final class VirtualThreadSchedulers {
+
+  private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadSchedulers.class);
+
+  private VirtualThreadSchedulers() {
+  }
+
+  /**
+   * Java 19 and 20 have Thread.ofVirtual as a preview API, that fails unless --enable-preview is given, so the
+   * version is checked instead of the method.
+   */
+  public static boolean isSupported() {
+    return Runtime.version().feature() >= 21;
+  }
+
+  /**
+   * @param name Prefix of the names of the virtual threads
+   * @param maxConcurrency Max number of tasks that run at the same time, e.g. the size of a JDBC connection pool
+   * @return the scheduler, or empty if the JVM does not support virtual threads
+   */
+  public static Optional<Scheduler> newVirtualThreadScheduler(String name, int maxConcurrency) {
+
+    Optional<Executor> virtualThreadExecutor = newVirtualThreadExecutor(name);
+    if (virtualThreadExecutor.isEmpty()) {
+      return Optional.empty();
+    }
+
+    Executor executor = virtualThreadExecutor.get();
+    Semaphore permits = new Semaphore(maxConcurrency);
+
+    // Tasks over the limit wait for a permit on their own virtual thread, they are never rejected
+    Executor boundedExecutor = task -> executor.execute(() -> {
+      permits.acquireUninterruptibly();
+      try {
+        task.run();
+      } finally {
+        permits.release();
+      }
+    });
+
+    return Optional.of(Schedulers.fromExecutor(boundedExecutor));
+  }
+
+  private static Optional<Executor> newVirtualThreadExecutor(String name) {
+
+    if (!isSupported()) {
+      LOG.warn("Virtual threads are not supported by this JVM, Java 21 or later is required: {}", Runtime.version());
+      return Optional.empty();
+    }
+
+    try {
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+      ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+      Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return Optional.of((Executor) newThreadPerTaskExecutor.invoke(null, threadFactory));
+
+    } catch (ReflectiveOperationException e) {
+      LOG.warn("Virtual threads are not supported by this JVM, Java 21 or later is required: {}", e.toString());
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package se.magnus.util.http;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+
+class ConditionalGetTests {
+
+  @Test
+  void streamsWhenNdjsonIsPreferred() {
+    assertTrue(isStreaming("application/x-ndjson"));
+    assertTrue(isStreaming("application/x-ndjson, application/json"));
+    assertTrue(isStreaming("application/json;q=0.5, application/x-ndjson"));
+    assertTrue(isStreaming("application/x-ndjson, */*;q=0.8"));
+  }
+
+  @Test
+  void doesNotStreamWhenJsonIsPreferredOrNdjsonIsNotAcceptable() {
+    assertFalse(isStreaming("application/json"));
+    assertFalse(isStreaming("*/*"));
+    assertFalse(isStreaming("application/json, application/x-ndjson"));
+    assertFalse(isStreaming("application/x-ndjson;q=0.5, application/json"));
+    assertFalse(isStreaming("application/x-ndjson;q=0, */*"));
+    assertFalse(isStreaming("application/*, application/x-ndjson;q=0"));
+  }
+
+  private static boolean isStreaming(String accept) {
+    return ConditionalGet.isStreaming(MediaType.parseMediaTypes(accept));
+  }
+}
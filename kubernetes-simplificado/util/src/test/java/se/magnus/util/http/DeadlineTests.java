@@ -0,0 +1,56 @@
+package se.magnus.util.http;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+class DeadlineTests {
+
+  @Test
+  void parsesTheRemainingBudget() {
+
+    Deadline deadline = Deadline.fromHeader("10000").orElseThrow();
+
+    assertFalse(deadline.isExpired());
+    assertTrue(deadline.remaining().compareTo(Duration.ofSeconds(9)) > 0);
+    assertTrue(Long.parseLong(deadline.toHeader()) <= 10000);
+
+    assertTrue(Deadline.fromHeader("0").orElseThrow().isExpired());
+    assertTrue(Deadline.fromHeader("-1").orElseThrow().isExpired());
+  }
+
+  @Test
+  void comparesDeadlines() {
+
+    Deadline sooner = Deadline.after(Duration.ofSeconds(1));
+    Deadline later = Deadline.after(Duration.ofSeconds(5));
+
+    assertTrue(sooner.isBefore(later));
+    assertFalse(later.isBefore(sooner));
+    assertFalse(sooner.isBefore(sooner));
+  }
+
+  @Test
+  void ignoresMissingOrInvalidHeader() {
+    assertFalse(Deadline.fromHeader(null).isPresent());
+    assertFalse(Deadline.fromHeader("soon").isPresent());
+  }
+
+  @Test
+  void isKeptInTheReactorContext() {
+
+    Deadline deadline = Deadline.after(Duration.ofSeconds(1));
+
+    StepVerifier.create(Mono.deferContextual(ctx -> Mono.justOrEmpty(Deadline.current(ctx)))
+        .contextWrite(ctx -> ctx.put(Deadline.class, deadline)))
+      .expectNext(deadline)
+      .verifyComplete();
+
+    StepVerifier.create(Mono.deferContextual(ctx -> Mono.justOrEmpty(Deadline.current(ctx))))
+      .verifyComplete();
+  }
+}
@@ -0,0 +1,35 @@
+package se.magnus.util.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import se.magnus.api.exceptions.InvalidInputException;
+
+class RequestParametersTests {
+
+  @Test
+  void keepsDistinctProductIdsInOrder() {
+    assertEquals(List.of(3, 1, 2), List.copyOf(RequestParameters.validateProductIds(List.of(3, 1, 3, 2), 3)));
+  }
+
+  @Test
+  void rejectsInvalidProductIds() {
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateProductIds(List.of(), 3));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateProductIds(Arrays.asList(1, null), 3));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateProductIds(List.of(1, -1), 3));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateProductIds(List.of(1, 2, 3, 4), 3));
+  }
+
+  @Test
+  void validatesLimit() {
+    assertEquals(10, RequestParameters.validateLimit(Set.of(1), null, 10));
+    assertEquals(5, RequestParameters.validateLimit(Set.of(1), 5, 10));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateLimit(Set.of(1), 11, 10));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateLimit(Set.of(1), 0, 10));
+    assertThrows(InvalidInputException.class, () -> RequestParameters.validateLimit(Set.of(1, 2), 5, 10));
+  }
+}
@@ -0,0 +1,84 @@
+package se.magnus.util.messaging;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static se.magnus.api.event.Event.Type.CREATE;
+import static se.magnus.api.event.Event.Type.DELETE;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import se.magnus.api.event.Event;
+import se.magnus.api.exceptions.EventProcessingException;
+
+class EventBatchesTests {
+
+  @Test
+  void splitsBatchIntoRunsOfSameType() {
+
+    List<Event<Integer, String>> events = List.of(
+      new Event<>(CREATE, 1, "a"),
+      new Event<>(CREATE, 2, "b"),
+      new Event<>(DELETE, 1, null),
+      new Event<>(CREATE, 1, "c"));
+
+    List<List<Event<Integer, String>>> runs = EventBatches.runsOfSameType(events);
+
+    assertEquals(3, runs.size());
+    assertEquals(events.subList(0, 2), runs.get(0));
+    assertEquals(events.subList(2, 3), runs.get(1));
+    assertEquals(events.subList(3, 4), runs.get(2));
+  }
+
+  @Test
+  void emptyBatchHasNoRuns() {
+    assertTrue(EventBatches.runsOfSameType(List.<Event<Integer, String>>of()).isEmpty());
+  }
+
+  @Test
+  void keepsEventsWithSameKeyInOneLaneInOrder() {
+
+    List<Event<Integer, String>> events = List.of(
+      new Event<>(CREATE, 1, "a"),
+      new Event<>(CREATE, 2, "b"),
+      new Event<>(DELETE, 1, null),
+      new Event<>(CREATE, 3, "c"),
+      new Event<>(CREATE, 1, "d"));
+
+    List<List<Event<Integer, String>>> lanes = EventBatches.lanesByKey(events, 2);
+
+    assertEquals(2, lanes.size());
+    assertEquals(List.of(events.get(1)), lanes.get(0));
+    assertEquals(List.of(events.get(0), events.get(2), events.get(3), events.get(4)), lanes.get(1));
+
+    assertEquals(List.of(events), EventBatches.lanesByKey(events, 1));
+  }
+
+  @Test
+  void failedLanesDoNotStopTheOthers() {
+
+    List<Event<Integer, String>> events = List.of(
+      new Event<>(CREATE, 1, "a"),
+      new Event<>(CREATE, 2, "b"),
+      new Event<>(CREATE, 3, "c"),
+      new Event<>(DELETE, 1, null));
+
+    Set<String> processed = ConcurrentHashMap.newKeySet();
+    EventProcessingException failed = assertThrows(EventProcessingException.class, () ->
+      EventBatches.processInLanes(events, 3, run -> {
+        if (run.get(0).getKey() != 2) {
+          return Mono.error(new IllegalStateException("lane of " + run.get(0).getKey() + " failed"));
+        }
+        run.forEach(event -> processed.add(event.getData()));
+        return Mono.empty();
+      }).block());
+
+    // The lane of key 1 stops at its first run, the other lanes run to the end
+    assertEquals(Set.of("b"), processed);
+    assertEquals(2, 1 + failed.getSuppressed().length);
+    assertTrue(failed.getMessage().startsWith("2 of 3 lanes of a batch of 4 events failed"));
+  }
+}
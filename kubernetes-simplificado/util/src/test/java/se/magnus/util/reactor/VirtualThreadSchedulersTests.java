@@ -0,0 +1,46 @@
+package se.magnus.util.reactor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+class VirtualThreadSchedulersTests {
+
+  @Test
+  void schedulerIsOnlyCreatedIfVirtualThreadsAreSupported() {
+    Optional<Scheduler> scheduler = VirtualThreadSchedulers.newVirtualThreadScheduler("test", 2);
+    assertEquals(VirtualThreadSchedulers.isSupported(), scheduler.isPresent());
+    scheduler.ifPresent(Scheduler::dispose);
+  }
+
+  @Test
+  void concurrencyIsLimited() {
+    assumeTrue(VirtualThreadSchedulers.isSupported(), "Virtual threads require Java 21");
+    Optional<Scheduler> scheduler = VirtualThreadSchedulers.newVirtualThreadScheduler("test", 2);
+
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+
+    // More tasks than the task queue of a bounded elastic scheduler can hold, none are rejected
+    long completed = Flux.range(0, 200)
+      .flatMap(i -> Mono.fromCallable(() -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        Thread.sleep(1);
+        running.decrementAndGet();
+        return i;
+      }).subscribeOn(scheduler.get()), 200)
+      .count()
+      .block();
+
+    assertEquals(200, completed);
+    assertTrue(maxRunning.get() <= 2);
+    scheduler.get().dispose();
+  }
+}